@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/*
+    Checks DayFormatter against the per-call formatting it replaced, and benchmarks the two.
+    The benchmark runs like a JMH one would: warmup iterations that are thrown away, then
+    measured iterations of a fixed number of operations, reported as the mean time per
+    operation with its standard deviation, plus the allocations per operation.
+ */
+public class TestDayFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayFormatter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // What the forecast list shows
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int OPS_PER_ITERATION = 50 * FORECAST_DAYS;
+
+    private static final int THREADS = 4;
+
+    private long[] mForecastDates;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        mForecastDates = new long[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            mForecastDates[i] = today + i * DAY_IN_MILLIS;
+        }
+        DayFormatter.invalidate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DayFormatter.invalidate();
+        super.tearDown();
+    }
+
+    private void assertMatchesLegacy() {
+        long today = mForecastDates[0];
+        for (int i = -2; i < 30; i++) {
+            long date = today + i * DAY_IN_MILLIS;
+            // twice, so the cached labels get checked as well as the freshly made ones
+            for (int pass = 0; pass < 2; pass++) {
+                assertEquals(Legacy.getFriendlyDayString(mContext, date, false),
+                        Utility.getFriendlyDayString(mContext, date, false));
+                assertEquals(Legacy.getFriendlyDayString(mContext, date, true),
+                        Utility.getFriendlyDayString(mContext, date, true));
+                assertEquals(Legacy.getFullFriendlyDayString(mContext, date),
+                        Utility.getFullFriendlyDayString(mContext, date));
+                assertEquals(Legacy.getDayName(mContext, date),
+                        Utility.getDayName(mContext, date));
+                assertEquals(Legacy.getFormattedMonthDay(mContext, date),
+                        Utility.getFormattedMonthDay(mContext, date));
+                assertEquals(Legacy.formatDate(date), Utility.formatDate(date));
+            }
+        }
+    }
+
+    public void testMatchesLegacyFormatting() {
+        assertMatchesLegacy();
+    }
+
+    public void testLocaleChange() {
+        Locale saved = Locale.getDefault();
+        try {
+            assertMatchesLegacy();
+            // no broadcast arrives for this one, so it has to be noticed on the next call
+            Locale.setDefault(saved.getLanguage().equals("fr") ? Locale.GERMANY : Locale.FRANCE);
+            assertMatchesLegacy();
+        } finally {
+            Locale.setDefault(saved);
+        }
+        assertMatchesLegacy();
+    }
+
+    public void testConcurrentUse() throws Throwable {
+        final String[] expected = new String[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            expected[i] = Legacy.getFriendlyDayString(mContext, mForecastDates[i], false)
+                    + Legacy.formatDate(mForecastDates[i]);
+        }
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread("TestDayFormatter-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < OPS_PER_ITERATION; n++) {
+                            int i = n % FORECAST_DAYS;
+                            if (n % (OPS_PER_ITERATION / 4) == 0) {
+                                // as a locale or time zone change would, from another thread
+                                DayFormatter.invalidate();
+                            }
+                            assertEquals(expected[i], Utility.getFriendlyDayString(mContext,
+                                    mForecastDates[i], false) + Utility.formatDate(mForecastDates[i]));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    public void testBenchmark() {
+        Benchmark legacy = new Benchmark() {
+            @Override
+            void op(int n) {
+                long date = mForecastDates[n % FORECAST_DAYS];
+                Legacy.getFriendlyDayString(mContext, date, n % FORECAST_DAYS == 0);
+            }
+        };
+        Benchmark cached = new Benchmark() {
+            @Override
+            void op(int n) {
+                long date = mForecastDates[n % FORECAST_DAYS];
+                Utility.getFriendlyDayString(mContext, date, n % FORECAST_DAYS == 0);
+            }
+        };
+        Benchmark uncachedLabels = new Benchmark() {
+            @Override
+            void op(int n) {
+                // every label made again, but with the thread's formatters
+                DayFormatter.invalidate();
+                long date = mForecastDates[n % FORECAST_DAYS];
+                Utility.getFriendlyDayString(mContext, date, n % FORECAST_DAYS == 0);
+            }
+        };
+        Benchmark legacyFormatDate = new Benchmark() {
+            @Override
+            void op(int n) {
+                Legacy.formatDate(mForecastDates[n % FORECAST_DAYS]);
+            }
+        };
+        Benchmark cachedFormatDate = new Benchmark() {
+            @Override
+            void op(int n) {
+                Utility.formatDate(mForecastDates[n % FORECAST_DAYS]);
+            }
+        };
+
+        // Only logged: timings on a shared test device are too noisy to fail a build on
+        double legacyNanos = legacy.run("getFriendlyDayString, per call formatters");
+        double cachedNanos = cached.run("getFriendlyDayString, DayFormatter");
+        uncachedLabels.run("getFriendlyDayString, DayFormatter without labels");
+        legacyFormatDate.run("formatDate, per call formatter");
+        cachedFormatDate.run("formatDate, DayFormatter");
+        Log.i(LOG_TAG, String.format("getFriendlyDayString: DayFormatter at %.2fx the per call time",
+                cachedNanos / legacyNanos));
+    }
+
+    private abstract static class Benchmark {
+
+        abstract void op(int n);
+
+        private long iteration() {
+            long start = System.nanoTime();
+            for (int n = 0; n < OPS_PER_ITERATION; n++) {
+                op(n);
+            }
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * @return the mean nanoseconds per operation over the measured iterations
+         */
+        double run(String name) {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                iteration();
+            }
+            double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+            double mean = 0;
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                nanosPerOp[i] = (double) iteration() / OPS_PER_ITERATION;
+                mean += nanosPerOp[i] / MEASURED_ITERATIONS;
+            }
+            Debug.stopAllocCounting();
+            int allocations = Debug.getThreadAllocCount();
+            double variance = 0;
+            for (double value : nanosPerOp) {
+                variance += (value - mean) * (value - mean) / (MEASURED_ITERATIONS - 1);
+            }
+            Log.i(LOG_TAG, String.format("%s: %.0f ± %.0f ns/op, %.1f allocations/op",
+                    name, mean, Math.sqrt(variance),
+                    (double) allocations / (MEASURED_ITERATIONS * OPS_PER_ITERATION)));
+            return mean;
+        }
+    }
+
+    /*
+        Utility's date formatting as it was before DayFormatter, with new formatters made on
+        every call.  Kept to check the output against and to benchmark.
+     */
+    private static class Legacy {
+
+        static String formatDate(long dateInMilliseconds) {
+            Date date = new Date(dateInMilliseconds);
+            return DateFormat.getDateInstance().format(date);
+        }
+
+        static String getFriendlyDayString(Context context, long dateInMillis,
+                                           boolean displayLongToday) {
+            Time time = new Time();
+            time.setToNow();
+            long currentTime = System.currentTimeMillis();
+            int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+            int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+            if (displayLongToday && julianDay == currentJulianDay) {
+                String today = context.getString(R.string.today);
+                int formatId = R.string.format_full_friendly_date;
+                return String.format(context.getString(
+                        formatId,
+                        today,
+                        getFormattedMonthDay(context, dateInMillis)));
+            } else if (julianDay < currentJulianDay + 7) {
+                return getDayName(context, dateInMillis);
+            } else {
+                SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+                return shortenedDateFormat.format(dateInMillis);
+            }
+        }
+
+        static String getFullFriendlyDayString(Context context, long dateInMillis) {
+            String day = getDayName(context, dateInMillis);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    day,
+                    getFormattedMonthDay(context, dateInMillis)));
+        }
+
+        static String getDayName(Context context, long dateInMillis) {
+            Time t = new Time();
+            t.setToNow();
+            int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+            int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+            if (julianDay == currentJulianDay) {
+                return context.getString(R.string.today);
+            } else if (julianDay == currentJulianDay + 1) {
+                return context.getString(R.string.tomorrow);
+            } else {
+                Time time = new Time();
+                time.setToNow();
+                SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+                return dayFormat.format(dateInMillis);
+            }
+        }
+
+        static String getFormattedMonthDay(Context context, long dateInMillis) {
+            Time time = new Time();
+            time.setToNow();
+            SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
+            SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+            return monthDayFormat.format(dateInMillis);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.ViewConfiguration;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Arrays;
+
+/*
+    Flings the forecast list over a long forecast and logs the frame times and the main thread
+    allocations, plus the cost of binding a single row.
+ */
+public class TestForecastListFling extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = TestForecastListFling.class.getSimpleName();
+
+    // A setting the server won't know, so a sync started by the activity leaves the rows alone
+    private static final String FLING_LOCATION = "sunshine-fling-test";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 200;
+    private static final int[] WEATHER_IDS = {200, 300, 500, 511, 600, 701, 800, 801, 802};
+    private static final int FLINGS = 6;
+    private static final int BIND_ROUNDS = 20;
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mSavedLocation;
+    private long mLocationId;
+
+    public TestForecastListFling() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationKey = context.getString(R.string.pref_location_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        mPrefs.edit().putString(mLocationKey, FLING_LOCATION).commit();
+        SettingsSnapshot.reload(context);
+        insertForecast();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        context.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)});
+        context.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationId)});
+        if (mSavedLocation == null) {
+            mPrefs.edit().remove(mLocationKey).commit();
+        } else {
+            mPrefs.edit().putString(mLocationKey, mSavedLocation).commit();
+        }
+        SettingsSnapshot.reload(context);
+        super.tearDown();
+    }
+
+    private void insertForecast() {
+        Context context = getInstrumentation().getTargetContext();
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, FLING_LOCATION);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                context.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] forecast = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, WEATHER_IDS[i % WEATHER_IDS.length]);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 10 + i % 7);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i % 9);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            forecast[i] = weatherValues;
+        }
+        context.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+    }
+
+    private RecyclerView waitForList() throws Exception {
+        final RecyclerView recyclerView =
+                (RecyclerView) getActivity().findViewById(R.id.recyclerview_forecast);
+        assertNotNull(recyclerView);
+        new PollingCheck(10000) {
+            @Override
+            protected boolean check() {
+                RecyclerView.Adapter adapter = recyclerView.getAdapter();
+                return adapter != null && adapter.getItemCount() == DAYS;
+            }
+        }.run();
+        return recyclerView;
+    }
+
+    public void testBindBenchmark() throws Throwable {
+        final RecyclerView recyclerView = waitForList();
+        final long[] result = new long[2];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                RecyclerView.Adapter adapter = recyclerView.getAdapter();
+                RecyclerView.ViewHolder holder = adapter.onCreateViewHolder(recyclerView,
+                        adapter.getItemViewType(1));
+                // warm up anything lazily created on the first bind
+                adapter.onBindViewHolder(holder, 1);
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                long start = System.nanoTime();
+                for (int round = 0; round < BIND_ROUNDS; round++) {
+                    for (int position = 1; position < DAYS; position++) {
+                        adapter.onBindViewHolder(holder, position);
+                    }
+                }
+                result[0] = System.nanoTime() - start;
+                Debug.stopAllocCounting();
+                result[1] = Debug.getThreadAllocCount();
+            }
+        });
+        int binds = BIND_ROUNDS * (DAYS - 1);
+        Log.i(LOG_TAG, String.format("onBindViewHolder: %.1f us and %.1f allocations per row",
+                result[0] / 1000.0 / binds, (double) result[1] / binds));
+    }
+
+    public void testFlingBenchmark() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // frame timing needs Choreographer
+            return;
+        }
+        final RecyclerView recyclerView = waitForList();
+        final FrameRecorder recorder = new FrameRecorder();
+        final int velocity = ViewConfiguration.get(getActivity()).getScaledMaximumFlingVelocity();
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+            }
+        });
+        for (int i = 0; i < FLINGS; i++) {
+            final int direction = i % 2 == 0 ? 1 : -1;
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.fling(0, direction * velocity);
+                }
+            });
+            new PollingCheck(10000) {
+                @Override
+                protected boolean check() {
+                    return recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE;
+                }
+            }.run();
+        }
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+            }
+        });
+
+        long[] frames = recorder.getFrameNanos();
+        assertTrue("Error: the list didn't scroll", frames.length > 0);
+        Arrays.sort(frames);
+        int janky = 0;
+        for (long frame : frames) {
+            if (frame > FRAME_NANOS + FRAME_NANOS / 2) {
+                janky++;
+            }
+        }
+        Log.i(LOG_TAG, String.format("%d flings: %d frames, median %.1f ms, 90th %.1f ms, " +
+                        "worst %.1f ms, %d over one vsync; %.1f main thread allocations per frame",
+                FLINGS, frames.length,
+                frames[frames.length / 2] / 1e6, frames[frames.length * 9 / 10] / 1e6,
+                frames[frames.length - 1] / 1e6, janky,
+                (double) recorder.getAllocations() / frames.length));
+    }
+
+    /*
+        Records the time between consecutive frames, and counts what the main thread allocated
+        in between start and stop.  Only touched on the main thread.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        private long[] mFrameNanos = new long[1024];
+        private int mFrameCount;
+        private long mLastFrameTime;
+        private boolean mRunning;
+        private int mAllocations;
+
+        void start() {
+            mRunning = true;
+            mLastFrameTime = 0;
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Debug.stopAllocCounting();
+            mAllocations = Debug.getThreadAllocCount();
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameTime != 0) {
+                if (mFrameCount == mFrameNanos.length) {
+                    mFrameNanos = Arrays.copyOf(mFrameNanos, mFrameCount * 2);
+                }
+                mFrameNanos[mFrameCount++] = frameTimeNanos - mLastFrameTime;
+            }
+            mLastFrameTime = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        long[] getFrameNanos() {
+            return Arrays.copyOf(mFrameNanos, mFrameCount);
+        }
+
+        int getAllocations() {
+            return mAllocations;
+        }
+    }
+}
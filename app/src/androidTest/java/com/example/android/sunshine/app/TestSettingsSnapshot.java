@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mUnitsKey;
+    private String mArtPackKey;
+    private String mSavedLocation;
+    private String mSavedUnits;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        restore(editor, mLocationKey, mSavedLocation);
+        restore(editor, mUnitsKey, mSavedUnits);
+        restore(editor, mArtPackKey, mSavedArtPack);
+        editor.commit();
+        SettingsSnapshot.reload(mContext);
+        super.tearDown();
+    }
+
+    private static void restore(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+
+    public void testDefaults() {
+        mPrefs.edit().remove(mLocationKey).remove(mUnitsKey).remove(mArtPackKey).commit();
+        SettingsSnapshot settings = SettingsSnapshot.reload(mContext);
+
+        assertEquals(mContext.getString(R.string.pref_location_default), settings.locationSetting);
+        assertTrue(settings.metric);
+        assertTrue(settings.localGraphics);
+        assertEquals(mContext.getString(R.string.pref_art_pack_sunshine), settings.artPack);
+    }
+
+    public void testSameSnapshotUntilChanged() {
+        SettingsSnapshot first = SettingsSnapshot.get(mContext);
+        assertSame(first, SettingsSnapshot.get(mContext));
+        assertEquals(first.locationSetting, Utility.getPreferredLocation(mContext));
+        assertEquals(first.metric, Utility.isMetric(mContext));
+        assertEquals(first.localGraphics, Utility.usingLocalGraphics(mContext));
+    }
+
+    public void testListenerPicksUpChanges() {
+        // make sure the listener is registered before the write
+        final SettingsSnapshot before = SettingsSnapshot.reload(mContext);
+        final String location = "settings-snapshot-test";
+        final String units = mContext.getString(R.string.pref_units_imperial);
+        mPrefs.edit()
+                .putString(mLocationKey, location)
+                .putString(mUnitsKey, units)
+                .commit();
+
+        // the listener runs on the main thread, some time after the commit
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext) != before;
+            }
+        }.run();
+        SettingsSnapshot after = SettingsSnapshot.get(mContext);
+        assertEquals(location, after.locationSetting);
+        assertFalse(after.metric);
+        assertEquals(location, Utility.getPreferredLocation(mContext));
+        assertFalse(Utility.isMetric(mContext));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    Builds a database as every released version left it, opens it with the current
+    WeatherDbHelper, and checks that the rows survived and the schema matches a fresh install.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+
+    // The schema of every released version, frozen as it shipped.  Add the new version's
+    // statements here whenever DATABASE_VERSION changes; never edit the old ones.
+    private static final String[] SCHEMA_V2 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    private static final String[] SCHEMA_V3 = {
+            SCHEMA_V2[0],
+            SCHEMA_V2[1],
+            "CREATE INDEX IF NOT EXISTS weather_location_date_idx ON weather " +
+                    "(location_id, date, weather_id, short_desc, max, min);"
+    };
+
+    private static final Map<Integer, String[]> HISTORIC_SCHEMAS = new TreeMap<Integer, String[]>();
+    static {
+        HISTORIC_SCHEMAS.put(2, SCHEMA_V2);
+        HISTORIC_SCHEMAS.put(3, SCHEMA_V3);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /*
+        Writes a database at the given version with one location and DAYS days of weather,
+        without going through WeatherDbHelper.
+     */
+    private void createHistoricDatabase(int version, String[] schema) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        for (String statement : schema) {
+            db.execSQL(statement);
+        }
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        }
+        db.setVersion(version);
+        db.close();
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    /*
+        Every table and index with the columns of each table, in a form that can be compared
+        between two databases.
+     */
+    private static Map<String, String> describeSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new TreeMap<String, String>();
+        Cursor master = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (master.moveToNext()) {
+            String type = master.getString(0);
+            String name = master.getString(1);
+            StringBuilder columns = new StringBuilder(type).append(" on ").append(master.getString(2));
+            Cursor info = db.rawQuery(("table".equals(type) ? "PRAGMA table_info(" : "PRAGMA index_info(")
+                    + name + ")", null);
+            int nameIndex = info.getColumnIndex("name");
+            while (info.moveToNext()) {
+                columns.append(' ').append(info.getString(nameIndex));
+            }
+            info.close();
+            schema.put(name, columns.toString());
+        }
+        master.close();
+        return schema;
+    }
+
+    private Map<String, String> describeFreshSchema() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Map<String, String> schema = describeSchema(db);
+        db.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        return schema;
+    }
+
+    public void testMigrationsReachCurrentVersion() {
+        int version = WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION;
+        for (WeatherDbMigrations.Migration migration : WeatherDbMigrations.MIGRATIONS) {
+            assertEquals("Error: the migrations are out of order or have a gap",
+                    version, migration.fromVersion);
+            version++;
+        }
+        assertEquals("Error: DATABASE_VERSION changed without a migration",
+                WeatherDbHelper.DATABASE_VERSION, version);
+        assertTrue("Error: the current schema isn't frozen in this test",
+                HISTORIC_SCHEMAS.containsKey(WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    public void testUpgradeFromEveryHistoricVersion() {
+        Map<String, String> freshSchema = describeFreshSchema();
+
+        for (Map.Entry<Integer, String[]> historic : HISTORIC_SCHEMAS.entrySet()) {
+            int version = historic.getKey();
+            createHistoricDatabase(version, historic.getValue());
+
+            SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: upgrading from version " + version + " lost locations",
+                    1, count(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: upgrading from version " + version + " lost weather",
+                    DAYS, count(db, WeatherEntry.TABLE_NAME));
+
+            // the rows must still be reachable the way the provider reads them
+            Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db, null,
+                    WeatherProvider.sLocationSettingWithStartDateSelection,
+                    new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals("Error: upgrading from version " + version + " broke the forecast query",
+                    DAYS, cursor.getCount());
+            cursor.moveToFirst();
+            TestUtilities.validateCurrentRecord("Error: upgrading from version " + version
+                    + " changed the weather", cursor, TestUtilities.createWeatherValues(
+                    cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY))));
+            cursor.close();
+
+            assertEquals("Error: upgrading from version " + version
+                    + " doesn't give the same schema as a fresh install",
+                    freshSchema, describeSchema(db));
+            db.close();
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        }
+    }
+
+    public void testEachMigrationStep() {
+        for (WeatherDbMigrations.Migration migration : WeatherDbMigrations.MIGRATIONS) {
+            int from = migration.fromVersion;
+            String[] schema = HISTORIC_SCHEMAS.get(from);
+            String[] expected = HISTORIC_SCHEMAS.get(from + 1);
+            if (schema == null || expected == null) {
+                continue;
+            }
+            createHistoricDatabase(from, schema);
+            SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+            migration.migrate(db);
+            Map<String, String> migrated = describeSchema(db);
+            db.close();
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+            createHistoricDatabase(from + 1, expected);
+            db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+            assertEquals("Error: the step from version " + from + " doesn't match the frozen schema",
+                    describeSchema(db), migrated);
+            db.close();
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        }
+    }
+
+    public void testUnmigratableVersionIsRebuilt() {
+        int version = WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION - 1;
+        createHistoricDatabase(version, SCHEMA_V2);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(0, count(db, LocationEntry.TABLE_NAME));
+        assertEquals(0, count(db, WeatherEntry.TABLE_NAME));
+        db.close();
+    }
+
+    public void testMissingStepFails() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        try {
+            WeatherDbMigrations.migrate(db, WeatherDbHelper.DATABASE_VERSION,
+                    WeatherDbHelper.DATABASE_VERSION + 1);
+            fail("Error: migrated to a version with no step");
+        } catch (IllegalStateException expected) {
+            // there's no step past the current version
+        } finally {
+            db.close();
+        }
+    }
+}
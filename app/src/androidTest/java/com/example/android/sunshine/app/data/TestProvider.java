@@ -20,15 +20,21 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -512,4 +518,165 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Re-sending rows that are already stored must not rewrite them: bulkInsert should
+        report only the rows it changed, and changed rows should keep their _id.
+     */
+    public void testBulkInsertOnlyWritesChangedRows() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] ids = getWeatherIds();
+
+        // the same forecast again changes nothing
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Unchanged rows were rewritten", 0, insertCount);
+
+        // change a single day, and listen on that day's URI
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        long changedDate = WeatherContract.normalizeDate(
+                changedValues[3].getAsLong(WeatherEntry.COLUMN_DATE));
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                true, dayObserver);
+
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changedValues);
+        dayObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        assertEquals("Error: Expected exactly one changed row", 1, insertCount);
+
+        // no row was deleted and re-inserted, so every _id survived
+        long[] newIds = getWeatherIds();
+        assertEquals(ids.length, newIds.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Error: Row " + i + " was replaced instead of updated", ids[i], newIds[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(99.0, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    private long[] getWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    /*
+        A sync that brings a new forecast changes every day of it.  That should reach the
+        location's observers as one notification, not one per day, while a change to a couple
+        of days still names them.
+     */
+    public void testBulkInsertNotifiesOncePerChangedForecast() throws InterruptedException {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues values : changedValues) {
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        }
+        long firstDate = changedValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+
+        CountingContentObserver locationObserver = new CountingContentObserver();
+        CountingContentObserver dayObserver = new CountingContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                locationObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, firstDate),
+                true, dayObserver);
+        try {
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, mContext.getContentResolver()
+                    .bulkInsert(WeatherEntry.CONTENT_URI, changedValues));
+            locationObserver.assertChangeCount(1);
+            // the location's notification reaches the observers of its days
+            dayObserver.assertChangeCount(1);
+
+            changedValues[1].put(WeatherEntry.COLUMN_MAX_TEMP, 98);
+            changedValues[2].put(WeatherEntry.COLUMN_MAX_TEMP, 98);
+            assertEquals(2, mContext.getContentResolver()
+                    .bulkInsert(WeatherEntry.CONTENT_URI, changedValues));
+            // one for each of the two days, and none for the first day, which didn't change
+            locationObserver.assertChangeCount(2);
+            dayObserver.assertChangeCount(0);
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(locationObserver);
+            mContext.getContentResolver().unregisterContentObserver(dayObserver);
+            locationObserver.quit();
+            dayObserver.quit();
+        }
+    }
+
+    private static class CountingContentObserver extends ContentObserver {
+        // long enough for a notification sent after the last one counted to arrive
+        private static final long SETTLE_MILLIS = 500;
+
+        private final HandlerThread mThread;
+        private final AtomicInteger mChangeCount = new AtomicInteger();
+
+        CountingContentObserver() {
+            this(startThread());
+        }
+
+        private CountingContentObserver(HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mThread = thread;
+        }
+
+        private static HandlerThread startThread() {
+            HandlerThread thread = new HandlerThread("CountingContentObserver");
+            thread.start();
+            return thread;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChangeCount.incrementAndGet();
+        }
+
+        /**
+         * Waits for the notifications since the last call, and fails unless there were exactly
+         * this many.
+         */
+        void assertChangeCount(final int expected) throws InterruptedException {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mChangeCount.get() >= expected;
+                }
+            }.run();
+            Thread.sleep(SETTLE_MILLIS);
+            assertEquals(expected, mChangeCount.getAndSet(0));
+        }
+
+        void quit() {
+            mThread.quit();
+        }
+    }
 }
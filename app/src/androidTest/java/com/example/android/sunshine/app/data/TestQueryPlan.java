@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN over the SQL behind every UriMatcher route, with the selections
+    the app actually uses, and fails if any of them has to scan a whole table.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    // The columns the forecast list reads, see ForecastFragment.FORECAST_COLUMNS
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+    private UriMatcher mMatcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mMatcher = WeatherProvider.buildUriMatcher();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private List<String> explain(String sql, String[] args) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    private static void assertNoFullScan(String route, List<String> plan) {
+        assertFalse("Error: no plan for " + route, plan.isEmpty());
+        for (String step : plan) {
+            // "SCAN TABLE weather" on older SQLite, "SCAN weather" on newer
+            assertFalse("Error: " + route + " scans a whole table: " + plan,
+                    step.startsWith("SCAN"));
+            assertFalse("Error: " + route + " builds a throwaway index: " + plan,
+                    step.contains("AUTOMATIC"));
+        }
+    }
+
+    private static void assertNoSort(String route, List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Error: " + route + " sorts its results: " + plan,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private static void assertCovered(String route, List<String> plan) {
+        for (String step : plan) {
+            if (step.contains("COVERING INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX)) {
+                return;
+            }
+        }
+        fail("Error: " + route + " doesn't read the weather rows from "
+                + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX + ": " + plan);
+    }
+
+    private List<String> explainLocationSettingRoute(String selection, String[] args) {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                FORECAST_COLUMNS, selection, null, null, SORT_ORDER, null);
+        return explain(sql, args);
+    }
+
+    public void testWeatherWithLocation() {
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(WeatherProvider.WEATHER_WITH_LOCATION, mMatcher.match(uri));
+
+        List<String> plan = explainLocationSettingRoute(
+                WeatherProvider.sLocationSettingSelection,
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertNoFullScan(uri.toString(), plan);
+        assertNoSort(uri.toString(), plan);
+        assertCovered(uri.toString(), plan);
+    }
+
+    public void testWeatherWithLocationAndStartDate() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertEquals(WeatherProvider.WEATHER_WITH_LOCATION, mMatcher.match(uri));
+
+        List<String> plan = explainLocationSettingRoute(
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+        assertNoFullScan(uri.toString(), plan);
+        assertNoSort(uri.toString(), plan);
+        assertCovered(uri.toString(), plan);
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertEquals(WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, mMatcher.match(uri));
+
+        // the detail view reads every column, so this one only needs to find its row
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        List<String> plan = explain(sql,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+        assertNoFullScan(uri.toString(), plan);
+    }
+
+    public void testWeather() {
+        Uri uri = WeatherEntry.CONTENT_URI;
+        assertEquals(WeatherProvider.WEATHER, mMatcher.match(uri));
+
+        // the stored rows of one location, read by WeatherProvider.bulkInsert
+        String sql = SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", null, null, null, null);
+        assertNoFullScan(uri.toString(), explain(sql, new String[]{"1"}));
+
+        // the old days dropped after every sync
+        sql = "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?";
+        assertNoFullScan(uri.toString(),
+                explain(sql, new String[]{Long.toString(TestUtilities.TEST_DATE)}));
+    }
+
+    public void testLocation() {
+        Uri uri = LocationEntry.CONTENT_URI;
+        assertEquals(WeatherProvider.LOCATION, mMatcher.match(uri));
+
+        // the lookup in SunshineSyncAdapter.addLocation.  Listing every location is a scan
+        // by definition, and the table only holds a handful of rows.
+        String sql = SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null, null, null, null);
+        assertNoFullScan(uri.toString(), explain(sql, new String[]{TestUtilities.TEST_LOCATION}));
+    }
+}
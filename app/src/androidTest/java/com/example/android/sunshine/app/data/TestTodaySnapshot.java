@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestTodaySnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mSavedLocation;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        mPrefs.edit().putString(mLocationKey, TestUtilities.TEST_LOCATION).commit();
+        SettingsSnapshot.reload(mContext);
+
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        if (mSavedLocation == null) {
+            mPrefs.edit().remove(mLocationKey).commit();
+        } else {
+            mPrefs.edit().putString(mLocationKey, mSavedLocation).commit();
+        }
+        SettingsSnapshot.reload(mContext);
+        super.tearDown();
+    }
+
+    private void insertWeather(long date) {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    public void testNoForecast() {
+        assertNull(TodaySnapshot.get(mContext));
+    }
+
+    public void testReadsTodaysForecast() {
+        insertWeather(mToday);
+
+        TodaySnapshot today = TodaySnapshot.get(mContext);
+        assertNotNull(today);
+        assertTrue(today.isToday());
+        assertEquals(TestUtilities.TEST_LOCATION, today.locationSetting);
+        assertEquals(321, today.weatherId);
+        assertEquals("Asteroids", today.description);
+        assertEquals(75.0, today.high);
+        assertEquals(65.0, today.low);
+        assertNotNull(today.formattedHigh);
+        assertNotNull(today.formattedLow);
+    }
+
+    public void testFallsBackToTheNextDay() {
+        insertWeather(mToday + 1000 * 60 * 60 * 24);
+
+        TodaySnapshot today = TodaySnapshot.get(mContext);
+        assertNotNull(today);
+        assertFalse(today.isToday());
+    }
+
+    public void testCachedUntilTheDataChanges() {
+        insertWeather(mToday);
+
+        TodaySnapshot first = TodaySnapshot.get(mContext);
+        assertSame("Error: the snapshot was read again with nothing changed",
+                first, TodaySnapshot.get(mContext));
+
+        ContentValues hotter = new ContentValues();
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, hotter, null, null);
+
+        TodaySnapshot second = TodaySnapshot.get(mContext);
+        assertNotSame("Error: the snapshot outlived a write", first, second);
+        assertEquals(80.0, second.high);
+        assertSame(second, TodaySnapshot.get(mContext));
+    }
+
+    public void testPublishRereads() {
+        insertWeather(mToday);
+
+        TodaySnapshot first = TodaySnapshot.get(mContext);
+        TodaySnapshot published = TodaySnapshot.publish(mContext);
+        assertNotSame(first, published);
+        assertSame(published, TodaySnapshot.get(mContext));
+    }
+
+    public void testLocationChangeInvalidates() {
+        insertWeather(mToday);
+        assertNotNull(TodaySnapshot.get(mContext));
+
+        mPrefs.edit().putString(mLocationKey, "nowhere").commit();
+        SettingsSnapshot.reload(mContext);
+        assertNull(TodaySnapshot.get(mContext));
+    }
+}
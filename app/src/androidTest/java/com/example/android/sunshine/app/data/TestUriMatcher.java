@@ -36,6 +36,10 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/metrics"
+    private static final Uri TEST_METRICS_DIR = WeatherContract.MetricsEntry.CONTENT_URI;
+    private static final Uri TEST_METRICS_LOCATIONS_DIR = WeatherContract.MetricsEntry.LOCATIONS_URI;
+    private static final Uri TEST_METRICS_SCHEDULE_ITEM = WeatherContract.MetricsEntry.SCHEDULE_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +57,11 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_DIR), WeatherProvider.METRICS);
+        assertEquals("Error: The METRICS LOCATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_LOCATIONS_DIR), WeatherProvider.METRICS_LOCATIONS);
+        assertEquals("Error: The METRICS SCHEDULE URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_SCHEDULE_ITEM), WeatherProvider.METRICS_SCHEDULE);
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that forecast queries keep being answered while the sync adapter is in the middle
+    of a large write transaction.
+ */
+public class TestWalConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWalConcurrency.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int WRITER_LOCATIONS = 20;
+    private static final int WRITER_DAYS = 1000;
+    private static final int READS = 20;
+
+    // How long the writer keeps its transaction open at most.  A reader that had to wait for
+    // it would take about this long; one that didn't takes a few milliseconds.
+    private static final long WRITER_HOLD_SECONDS = 10;
+    private static final long MAX_READ_MILLIS = 1000;
+
+    private ContentProviderClient mClient;
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient.release();
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    public void testJournalModeIsWal() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        SQLiteDatabase db = mProvider.getOpenHelper().getWritableDatabase();
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        assertEquals(mContext.getResources().getInteger(R.integer.wal_autocheckpoint_pages),
+                DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+    }
+
+    public void testReadsAreNotBlockedByBulkInsert() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        // what the forecast list will be reading
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        ContentValues[] forecast = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            forecast[i] = TestUtilities.createWeatherValues(locationRowId);
+            forecast[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        // what the sync adapter will be writing
+        final WeatherBatch batch = new WeatherBatch(WRITER_LOCATIONS * WRITER_DAYS);
+        for (int l = 0; l < WRITER_LOCATIONS; l++) {
+            long writerLocationId = insertLocation(TestUtilities.TEST_LOCATION + "-" + l);
+            for (int i = 0; i < WRITER_DAYS; i++) {
+                batch.add(writerLocationId, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 321,
+                        "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+            }
+        }
+
+        // The writer runs the bulk insert inside a transaction of its own and keeps it open
+        // until the reads are done, so every read below overlaps an uncommitted write.
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        final Throwable[] writerError = new Throwable[1];
+        Thread writer = new Thread("TestWalConcurrency-writer") {
+            @Override
+            public void run() {
+                SQLiteDatabase db = mProvider.getOpenHelper().getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    mProvider.bulkInsert(batch);
+                    inTransaction.countDown();
+                    readsDone.await(WRITER_HOLD_SECONDS, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (Throwable t) {
+                    writerError[0] = t;
+                } finally {
+                    db.endTransaction();
+                    inTransaction.countDown();
+                }
+            }
+        };
+        writer.start();
+        assertTrue(inTransaction.await(60, TimeUnit.SECONDS));
+        assertNull(writerError[0]);
+
+        long maxReadNanos = 0;
+        try {
+            for (int i = 0; i < READS; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocationWithStartDate(
+                                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                // getCount fills the window, so the rows have really been read by now
+                int count = cursor.getCount();
+                cursor.close();
+                maxReadNanos = Math.max(maxReadNanos, System.nanoTime() - start);
+                assertEquals(DAYS, count);
+            }
+        } finally {
+            readsDone.countDown();
+            writer.join();
+        }
+        assertNull(writerError[0]);
+
+        long maxReadMillis = TimeUnit.NANOSECONDS.toMillis(maxReadNanos);
+        Log.i(LOG_TAG, "Slowest read during a " + batch.size() + " row write: " + maxReadMillis + "ms");
+        assertTrue("Error: a read waited " + maxReadMillis + "ms for the writer",
+                maxReadMillis < MAX_READ_MILLIS);
+
+        // and the write itself went through
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(DAYS + batch.size(), cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that WeatherProvider.bulkInsert(WeatherBatch) stores the same rows as the
+    ContentValues path, and logs rows per second for both at several batch sizes.
+ */
+public class TestWeatherBatchInsert extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherBatchInsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int[] BENCHMARK_SIZES = {14, 1000, 100000};
+    // Keeps every date well clear of 2038, which android.text.format.Time can't cross
+    private static final int DAYS_PER_LOCATION = 1000;
+
+    private ContentProviderClient mClient;
+    private WeatherProvider mProvider;
+    private long[] mLocationRowIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+
+        int locations = BENCHMARK_SIZES[BENCHMARK_SIZES.length - 1] / DAYS_PER_LOCATION;
+        mLocationRowIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + "-" + i);
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    locationValues);
+            mLocationRowIds[i] = ContentUris.parseId(locationUri);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient.release();
+        super.tearDown();
+    }
+
+    private WeatherBatch createBatch(int rows) {
+        WeatherBatch batch = new WeatherBatch(rows);
+        for (int i = 0; i < rows; i++) {
+            long date = TestUtilities.TEST_DATE + (i % DAYS_PER_LOCATION) * DAY_IN_MILLIS;
+            batch.add(mLocationRowIds[i / DAYS_PER_LOCATION], date, 321, "Asteroids",
+                    65 - (i % 30), 75 + (i % 30), 1.2 + 0.01 * (i % 50), 1.3 - 0.01 * (i % 50),
+                    5.5 + 0.2 * (i % 20), 1.1);
+        }
+        return batch;
+    }
+
+    private ContentValues[] createContentValues(int rows) {
+        WeatherBatch batch = createBatch(rows);
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, batch.locationId[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, batch.date[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, batch.weatherId[i]);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, batch.shortDesc[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, batch.minTemp[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, batch.maxTemp[i]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, batch.humidity[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, batch.pressure[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, batch.windSpeed[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, batch.degrees[i]);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    public void testBatchMatchesContentValues() {
+        ContentValues[] expected = createContentValues(14);
+        assertEquals(14, mProvider.bulkInsert(createBatch(14)));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(14, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            // the provider stores normalized dates
+            expected[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(expected[i].getAsLong(WeatherEntry.COLUMN_DATE)));
+            TestUtilities.validateCurrentRecord("Error validating batch row " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+    }
+
+    public void testBatchNotifiesObservers() {
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, tco);
+        mProvider.bulkInsert(createBatch(3));
+        tco.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tco);
+    }
+
+    public void testInsertBenchmark() {
+        for (int rows : BENCHMARK_SIZES) {
+            ContentValues[] values = createContentValues(rows);
+            long start = System.nanoTime();
+            int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            long contentValuesNanos = System.nanoTime() - start;
+            assertEquals(rows, inserted);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            WeatherBatch batch = createBatch(rows);
+            start = System.nanoTime();
+            inserted = mProvider.bulkInsert(batch);
+            long batchNanos = System.nanoTime() - start;
+            assertEquals(rows, inserted);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            Log.i(LOG_TAG, String.format("%d rows: ContentValues %.0f rows/s, WeatherBatch %.0f rows/s",
+                    rows, rowsPerSecond(rows, contentValuesNanos), rowsPerSecond(rows, batchNanos)));
+        }
+    }
+
+    private static double rowsPerSecond(int rows, long nanos) {
+        return rows * 1e9 / Math.max(1, nanos);
+    }
+}
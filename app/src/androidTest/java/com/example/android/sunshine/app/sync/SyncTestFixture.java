@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    What the tests that run whole syncs share: the settings pinned to a known state for the
+    test and put back afterwards, a sync adapter that gets its forecasts from a stub server or
+    another ForecastSource instead of OpenWeatherMap, and clean up of the rows a sync stored.
+
+    Call setUp from the test's setUp and tearDown from its tearDown.
+ */
+class SyncTestFixture {
+
+    static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private Map<String, ?> mSavedPrefs;
+    private ContentProviderClient mProvider;
+
+    SyncTestFixture(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * Saves the settings, then makes the location the preferred one, syncing only it, with
+     * notifications off since they would fetch their art from the network.
+     */
+    void setUp(String preferredLocation) {
+        mSavedPrefs = new HashMap<String, Object>(mPrefs.getAll());
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), preferredLocation)
+                .putBoolean(mContext.getString(R.string.pref_sync_all_locations_key), false)
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+        SettingsSnapshot.reload(mContext);
+        // no backoff left over from another test
+        resetSyncState();
+
+        mProvider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+    }
+
+    /**
+     * Puts the settings back the way they were before setUp.
+     */
+    void tearDown() {
+        if (mProvider != null) {
+            mProvider.release();
+            mProvider = null;
+        }
+        resetSyncState();
+
+        SharedPreferences.Editor editor = mPrefs.edit().clear();
+        for (Map.Entry<String, ?> entry : mSavedPrefs.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+        SettingsSnapshot.reload(mContext);
+    }
+
+    void setSyncAllLocations(boolean syncAll) {
+        mPrefs.edit()
+                .putBoolean(mContext.getString(R.string.pref_sync_all_locations_key), syncAll)
+                .commit();
+        SettingsSnapshot.reload(mContext);
+    }
+
+    /**
+     * Forgets any backoff, and the validators of the given locations, so that the next sync
+     * asks for them from scratch.
+     */
+    void resetSyncState(String... locationSettings) {
+        SyncStateStore store = new SyncStateStore(mContext);
+        HttpValidatorCache validators = new HttpValidatorCache(store);
+        for (String locationSetting : locationSettings) {
+            validators.clear(locationSetting);
+        }
+        store.setRetry(0, 0);
+        store.apply();
+    }
+
+    SunshineSyncAdapter createAdapter(StubHttpServer server) {
+        return new SunshineSyncAdapter(mContext, false, server.getUrl(FORECAST_PATH).toString());
+    }
+
+    SunshineSyncAdapter createAdapter(ForecastSource source) {
+        return new SunshineSyncAdapter(mContext, false, source);
+    }
+
+    SyncResult sync(SunshineSyncAdapter adapter, boolean allLocations) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, allLocations);
+        SyncResult syncResult = new SyncResult();
+        adapter.onPerformSync(new Account("sync-test", mContext.getString(R.string.sync_account_type)),
+                extras, WeatherContract.CONTENT_AUTHORITY, mProvider, syncResult);
+        return syncResult;
+    }
+
+    /**
+     * Deletes the location and all of its weather.
+     */
+    void deleteLocation(String locationSetting) {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + LocationEntry._ID + " FROM "
+                        + LocationEntry.TABLE_NAME + " WHERE "
+                        + LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{locationSetting});
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{locationSetting});
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+
+    private static final int DEFAULT = SunshineSyncAdapter.SYNC_INTERVAL;
+
+    public void testDefault() {
+        AdaptiveSyncScheduler.Schedule schedule =
+                AdaptiveSyncScheduler.choose(1, 0, false, false, false);
+        assertEquals(DEFAULT, schedule.syncInterval);
+        assertEquals(DEFAULT / 3, schedule.flexTime);
+        assertEquals("", schedule.reasons);
+    }
+
+    public void testVolatileAndStable() {
+        AdaptiveSyncScheduler.Schedule schedule = AdaptiveSyncScheduler.choose(
+                AdaptiveSyncScheduler.VOLATILE_DAYS, 10, false, false, false);
+        assertEquals(DEFAULT / 2, schedule.syncInterval);
+        assertEquals("volatile", schedule.reasons);
+
+        schedule = AdaptiveSyncScheduler.choose(0, AdaptiveSyncScheduler.STABLE_SYNCS - 1,
+                false, false, false);
+        assertEquals(DEFAULT, schedule.syncInterval);
+
+        schedule = AdaptiveSyncScheduler.choose(0, AdaptiveSyncScheduler.STABLE_SYNCS,
+                false, false, false);
+        assertEquals(DEFAULT * 2, schedule.syncInterval);
+        assertEquals("stable", schedule.reasons);
+    }
+
+    public void testUsageAndConstraints() {
+        AdaptiveSyncScheduler.Schedule schedule =
+                AdaptiveSyncScheduler.choose(0, 0, true, false, false);
+        assertEquals(DEFAULT / 2, schedule.syncInterval);
+
+        // in use, but on a metered network: back where we started
+        schedule = AdaptiveSyncScheduler.choose(0, 0, true, true, false);
+        assertEquals(DEFAULT, schedule.syncInterval);
+        assertEquals("in_use metered", schedule.reasons);
+
+        schedule = AdaptiveSyncScheduler.choose(0, 0, false, false, true);
+        assertEquals(DEFAULT * 2, schedule.syncInterval);
+        assertEquals("low_battery", schedule.reasons);
+    }
+
+    public void testBounds() {
+        AdaptiveSyncScheduler.Schedule schedule = AdaptiveSyncScheduler.choose(
+                AdaptiveSyncScheduler.VOLATILE_DAYS, 0, true, false, false);
+        assertEquals(AdaptiveSyncScheduler.MIN_INTERVAL, schedule.syncInterval);
+
+        schedule = AdaptiveSyncScheduler.choose(0, AdaptiveSyncScheduler.STABLE_SYNCS,
+                false, true, true);
+        assertEquals(AdaptiveSyncScheduler.MAX_INTERVAL, schedule.syncInterval);
+        assertEquals("stable metered low_battery", schedule.reasons);
+    }
+
+    public void testDayChanged() {
+        // light rain to heavy rain: same group
+        assertFalse(AdaptiveSyncScheduler.dayChanged(500, 20, 10, 502, 21, 11));
+        // rain to clear
+        assertTrue(AdaptiveSyncScheduler.dayChanged(500, 20, 10, 800, 20, 10));
+        assertTrue(AdaptiveSyncScheduler.dayChanged(800, 20, 10, 800,
+                20 + AdaptiveSyncScheduler.TEMPERATURE_CHANGE, 10));
+        assertTrue(AdaptiveSyncScheduler.dayChanged(800, 20, 10, 800, 20,
+                10 - AdaptiveSyncScheduler.TEMPERATURE_CHANGE));
+    }
+
+    public void testAppUseBucket() {
+        long hour = AdaptiveSyncScheduler.APP_USE_BUCKET_MILLIS;
+        long start = 1000 * hour;
+        assertEquals(start, AdaptiveSyncScheduler.toAppUseBucket(start));
+        // resumes within the hour land in the same bucket, and so write nothing
+        assertEquals(start, AdaptiveSyncScheduler.toAppUseBucket(start + hour - 1));
+        assertEquals(start + hour, AdaptiveSyncScheduler.toAppUseBucket(start + hour));
+    }
+
+    public void testCurrentInterval() {
+        SyncStateStore store = new SyncStateStore(mContext);
+        int saved = store.getSyncInterval();
+        try {
+            store.setSyncInterval(0);
+            assertEquals(DEFAULT, AdaptiveSyncScheduler.getCurrentInterval(store));
+            // what a recreated account is set up with, instead of the default
+            store.setSyncInterval(AdaptiveSyncScheduler.MAX_INTERVAL);
+            assertEquals(AdaptiveSyncScheduler.MAX_INTERVAL,
+                    AdaptiveSyncScheduler.getCurrentInterval(store));
+        } finally {
+            store.setSyncInterval(saved);
+            store.apply();
+        }
+    }
+
+    public void testOnlyRecentUseCounts() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        boolean hadUse = prefs.contains(AdaptiveSyncScheduler.LAST_APP_USE_KEY);
+        long savedUse = prefs.getLong(AdaptiveSyncScheduler.LAST_APP_USE_KEY, 0);
+        AdaptiveSyncScheduler scheduler = new AdaptiveSyncScheduler(mContext,
+                new SyncStateStore(mContext), SyncMetrics.getInstance());
+        try {
+            // placed widgets that nobody has touched for a day don't count, so a stable
+            // forecast still gets the longer interval
+            prefs.edit().putLong(AdaptiveSyncScheduler.LAST_APP_USE_KEY,
+                    System.currentTimeMillis() - 4 * AdaptiveSyncScheduler.RECENT_USE_MILLIS)
+                    .commit();
+            assertFalse(scheduler.isInUse());
+            assertEquals(DEFAULT * 2, AdaptiveSyncScheduler.choose(0,
+                    AdaptiveSyncScheduler.STABLE_SYNCS, scheduler.isInUse(), false, false)
+                    .syncInterval);
+
+            // as a widget being resized, or the app opening, would
+            AdaptiveSyncScheduler.noteAppUsed(mContext);
+            assertTrue(scheduler.isInUse());
+        } finally {
+            SharedPreferences.Editor editor = prefs.edit();
+            if (hadUse) {
+                editor.putLong(AdaptiveSyncScheduler.LAST_APP_USE_KEY, savedUse);
+            } else {
+                editor.remove(AdaptiveSyncScheduler.LAST_APP_USE_KEY);
+            }
+            editor.commit();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+
+public class TestBatchSync extends AndroidTestCase {
+
+    private static final String GOOD_LOCATION = "batch-good";
+    private static final String BAD_LOCATION = "batch-bad";
+    private static final int DAYS = 14;
+
+    // the list cut off part way through its first day
+    private static final String TRUNCATED_PAYLOAD =
+            "{\"cod\":\"200\",\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}}," +
+                    "\"list\":[{\"pressure\":1}]}";
+
+    private SyncTestFixture mFixture;
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFixture = new SyncTestFixture(mContext);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                String location = Uri.parse(request.path).getQueryParameter("q");
+                if (BAD_LOCATION.equals(location)) {
+                    return new StubHttpServer.Response(200).body(TRUNCATED_PAYLOAD);
+                }
+                return new StubHttpServer.Response(200).body(
+                        TestForecastJsonParser.createForecastJson("Batch Good", DAYS));
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mFixture.resetSyncState(GOOD_LOCATION, BAD_LOCATION);
+        mFixture.deleteLocation(GOOD_LOCATION);
+        mFixture.deleteLocation(BAD_LOCATION);
+        mFixture.tearDown();
+        super.tearDown();
+    }
+
+    /**
+     * Makes one location the preferred one and saves the other, so that a batch sync
+     * refreshes both.
+     */
+    private void setUpLocations(String preferred, String saved) {
+        mFixture.setUp(preferred);
+        mFixture.resetSyncState(GOOD_LOCATION, BAD_LOCATION);
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, saved);
+        values.put(LocationEntry.COLUMN_CITY_NAME, saved);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 37.386051);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -122.083847);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        mAdapter = mFixture.createAdapter(mServer);
+    }
+
+    private int countWeather(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testMalformedLocationDoesNotStopTheOthers() {
+        setUpLocations(GOOD_LOCATION, BAD_LOCATION);
+
+        SyncResult syncResult = mFixture.sync(mAdapter, true);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, syncResult.stats.numParseExceptions);
+        assertEquals(DAYS, countWeather(GOOD_LOCATION));
+        assertEquals(0, countWeather(BAD_LOCATION));
+        // the status is the preferred location's
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                new SyncStateStore(mContext).getLocationStatus());
+    }
+
+    public void testMalformedPreferredLocationDoesNotStopTheOthers() {
+        setUpLocations(BAD_LOCATION, GOOD_LOCATION);
+
+        SyncResult syncResult = mFixture.sync(mAdapter, true);
+        assertEquals(1, syncResult.stats.numParseExceptions);
+        assertEquals(DAYS, countWeather(GOOD_LOCATION));
+        assertEquals(0, countWeather(BAD_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                new SyncStateStore(mContext).getLocationStatus());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Downloads and parses the same forecast three ways, from a StubHttpServer that gzips when it
+    is asked to:
+
+      legacy       the loop the sync used to have: a BufferedReader appending each line to a
+                   StringBuffer, no compression asked for
+      plain        ForecastFetcher against a server that won't compress
+      gzip         ForecastFetcher against a server that will
+
+    Every path hands the body to the same parser, the String one the old loop fed, so that
+    only the downloads differ.  The fetcher's bytes have to be made into a String for it first,
+    which counts against the fetcher.  Logs the bytes on the wire, the objects and bytes
+    allocated on this thread, and the time, per fetch.
+ */
+public class TestDownloadBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDownloadBenchmark.class.getSimpleName();
+
+    private static final String LOCATION = "download-benchmark";
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    private String mBody;
+    private byte[] mGzippedBody;
+    private volatile boolean mGzip;
+    private final AtomicLong mWireBytes = new AtomicLong();
+
+    private StubHttpServer mServer;
+    private ForecastFetcher mFetcher;
+
+    private static class Measurement {
+        long wireBytes;
+        long allocations;
+        long allocatedBytes;
+        long nanos;
+    }
+
+    private interface Download {
+        void run() throws Exception;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBody = TestForecastJsonParser.createForecastJson("Mountain View", 16);
+        mGzippedBody = TestForecastFetcher.gzip(mBody);
+
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                StubHttpServer.Response response = new StubHttpServer.Response(HttpURLConnection.HTTP_OK);
+                String acceptEncoding = request.header("Accept-Encoding");
+                if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response.header("Content-Encoding", "gzip").body(mGzippedBody);
+                } else {
+                    response.body(mBody);
+                }
+                mWireBytes.addAndGet(response.body.length);
+                return response;
+            }
+        });
+        mServer.start();
+
+        // nothing is ever stored in it, so every fetch is a full one
+        HttpValidatorCache cache = new HttpValidatorCache(new SyncStateStore(mContext));
+        cache.clear(LOCATION);
+        mFetcher = new ForecastFetcher(cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private URL forecastUrl() throws IOException {
+        return mServer.getUrl("/data/2.5/forecast/daily?q=" + LOCATION);
+    }
+
+    /**
+     * What the sync did before ForecastFetcher.
+     */
+    private Forecast legacyDownload() throws Exception {
+        HttpURLConnection urlConnection = null;
+        BufferedReader reader = null;
+        try {
+            urlConnection = (HttpURLConnection) forecastUrl().openConnection();
+            urlConnection.setRequestMethod("GET");
+            // never asked for compression, and the stub only compresses when asked
+            urlConnection.setRequestProperty("Accept-Encoding", "identity");
+            urlConnection.connect();
+
+            InputStream inputStream = urlConnection.getInputStream();
+            StringBuffer buffer = new StringBuffer();
+            reader = new BufferedReader(new InputStreamReader(inputStream));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                buffer.append(line + "\n");
+            }
+            return ForecastJsonParser.parse(buffer.toString());
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    private Forecast fetcherDownload() throws Exception {
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), LOCATION);
+        try {
+            return ForecastJsonParser.parse(new String(result.body, 0, result.length, "UTF-8"));
+        } finally {
+            mFetcher.release(result);
+        }
+    }
+
+    private Measurement measure(String name, Download download) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            download.run();
+        }
+        mWireBytes.set(0);
+
+        Measurement measurement = new Measurement();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            download.run();
+            measurement.nanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            measurement.allocations += Debug.getThreadAllocCount();
+            measurement.allocatedBytes += Debug.getThreadAllocSize();
+        }
+        measurement.wireBytes = mWireBytes.get();
+
+        Log.i(LOG_TAG, String.format("%-6s %6d bytes on the wire, %6d allocations, "
+                        + "%8d bytes allocated, %.2f ms per fetch",
+                name, measurement.wireBytes / MEASURED_ITERATIONS,
+                measurement.allocations / MEASURED_ITERATIONS,
+                measurement.allocatedBytes / MEASURED_ITERATIONS,
+                measurement.nanos / 1e6 / MEASURED_ITERATIONS));
+        return measurement;
+    }
+
+    public void testDownload() throws Exception {
+        assertEquals(16, legacyDownload().dayCount);
+        assertEquals(16, fetcherDownload().dayCount);
+
+        mGzip = false;
+        Measurement legacy = measure("legacy", new Download() {
+            @Override
+            public void run() throws Exception {
+                legacyDownload();
+            }
+        });
+        Measurement plain = measure("plain", new Download() {
+            @Override
+            public void run() throws Exception {
+                fetcherDownload();
+            }
+        });
+        mGzip = true;
+        Measurement gzip = measure("gzip", new Download() {
+            @Override
+            public void run() throws Exception {
+                fetcherDownload();
+            }
+        });
+
+        assertEquals(legacy.wireBytes, plain.wireBytes);
+        assertTrue("Error: gzip didn't shrink the response", gzip.wireBytes < plain.wireBytes / 2);
+        assertTrue("Error: the pooled path allocated " + plain.allocatedBytes
+                        + " bytes against the old loop's " + legacy.allocatedBytes,
+                plain.allocatedBytes < legacy.allocatedBytes);
+    }
+}
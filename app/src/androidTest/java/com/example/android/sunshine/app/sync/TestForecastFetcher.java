@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Runs the conditional GET against a stub server on the loopback interface.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private StubHttpServer mServer;
+    private HttpValidatorCache mCache;
+    private ForecastFetcher mFetcher;
+
+    // What the stub serves; tests change these between fetches
+    private volatile String mBody;
+    private volatile boolean mHonourValidators;
+    private volatile boolean mGzip;
+    private volatile String mLastIfNoneMatch;
+    private volatile String mLastIfModifiedSince;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new HttpValidatorCache(new SyncStateStore(mContext));
+        mCache.clear(LOCATION);
+        mFetcher = new ForecastFetcher(mCache);
+
+        mBody = TestForecastJsonParser.createForecastJson("Mountain View", 14);
+        mHonourValidators = true;
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                mLastIfNoneMatch = request.header("If-None-Match");
+                mLastIfModifiedSince = request.header("If-Modified-Since");
+                if (mHonourValidators && ETAG.equals(mLastIfNoneMatch)) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED)
+                            .header("ETag", ETAG);
+                }
+                StubHttpServer.Response response = new StubHttpServer.Response(HttpURLConnection.HTTP_OK);
+                String acceptEncoding = request.header("Accept-Encoding");
+                if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response.header("Content-Encoding", "gzip").body(gzip(mBody));
+                } else {
+                    response.body(mBody);
+                }
+                if (mHonourValidators) {
+                    response.header("ETag", ETAG).header("Last-Modified", LAST_MODIFIED);
+                }
+                return response;
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private URL forecastUrl() throws IOException {
+        return mServer.getUrl("/data/2.5/forecast/daily?q=" + LOCATION);
+    }
+
+    public void testFirstFetchIsUnconditional() throws Throwable {
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), LOCATION);
+
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+        assertEquals(mBody, new String(result.body, 0, result.length, "UTF-8"));
+        assertNull(mLastIfNoneMatch);
+        assertNull(mLastIfModifiedSince);
+        assertEquals(ETAG, result.validators.eTag);
+        assertEquals(LAST_MODIFIED, result.validators.lastModified);
+        assertNotNull(result.validators.bodyHash);
+    }
+
+    public void testStoredValidatorsYieldNotModified() throws Throwable {
+        mCache.put(LOCATION, mFetcher.fetch(forecastUrl(), LOCATION).validators);
+
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), LOCATION);
+
+        assertEquals(ForecastFetcher.RESULT_NOT_MODIFIED, result.status);
+        assertNull(result.body);
+        assertEquals(ETAG, mLastIfNoneMatch);
+        assertEquals(LAST_MODIFIED, mLastIfModifiedSince);
+    }
+
+    public void testValidatorsAreNotStoredByFetcher() throws Throwable {
+        mFetcher.fetch(forecastUrl(), LOCATION);
+
+        // the caller never stored anything, so the next request must be unconditional
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), LOCATION);
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+        assertNull(mLastIfNoneMatch);
+    }
+
+    public void testIdenticalBodyIsDetectedByHash() throws Throwable {
+        mHonourValidators = false;
+        mCache.put(LOCATION, mFetcher.fetch(forecastUrl(), LOCATION).validators);
+
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), LOCATION);
+        assertEquals(ForecastFetcher.RESULT_UNCHANGED, result.status);
+        assertNull(result.body);
+
+        mBody = TestForecastJsonParser.createForecastJson("Mountain View", 16);
+        result = mFetcher.fetch(forecastUrl(), LOCATION);
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+        assertEquals(mBody, new String(result.body, 0, result.length, "UTF-8"));
+    }
+
+    public void testValidatorsArePerLocation() throws Throwable {
+        mCache.put(LOCATION, mFetcher.fetch(forecastUrl(), LOCATION).validators);
+
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), "99705");
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+        assertNull(mLastIfNoneMatch);
+
+        mCache.clear(LOCATION);
+        result = mFetcher.fetch(forecastUrl(), LOCATION);
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+    }
+
+    public void testGzippedBodyIsDecoded() throws Throwable {
+        ForecastFetcher.Result plain = mFetcher.fetch(forecastUrl(), LOCATION);
+        mFetcher.release(plain);
+
+        mGzip = true;
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(), LOCATION);
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+        assertEquals(mBody, new String(result.body, 0, result.length, "UTF-8"));
+        assertTrue("Error: " + result.bytes + " bytes gzipped, " + plain.bytes + " plain",
+                result.bytes < plain.bytes);
+        // the decoded body is what gets hashed, so the encoding doesn't make it look new
+        assertEquals(plain.validators.bodyHash, result.validators.bodyHash);
+    }
+
+    public void testBodyBufferIsReused() throws Throwable {
+        ForecastFetcher.Result first = mFetcher.fetch(forecastUrl(), LOCATION);
+        byte[] body = first.body;
+        mFetcher.release(first);
+
+        ForecastFetcher.Result second = mFetcher.fetch(forecastUrl(), LOCATION);
+        assertSame(body, second.body);
+        assertEquals(mBody, new String(second.body, 0, second.length, "UTF-8"));
+    }
+}
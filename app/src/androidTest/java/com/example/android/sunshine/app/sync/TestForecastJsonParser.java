@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parser reads exactly what the JSONObject parser reads, and
+    compares the two on heap use and parse time.  Benchmark numbers go to logcat under
+    LOG_TAG; the benchmark itself only fails if the two paths disagree.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_CITIES = 30;
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    /*
+        Builds a response shaped like OWM's forecast/daily answer, including the fields we
+        don't read, so the parsers have to skip over them just like in the field.
+     */
+    static String createForecastJson(String cityName, int days) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0193,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"dt\":").append(1419033600L + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(10 + i)
+                    .append(",\"min\":").append(5.25 + i)
+                    .append(",\"max\":").append(15.5 + i)
+                    .append(",\"night\":7.1,\"eve\":9.8,\"morn\":6.2},")
+                    .append("\"pressure\":").append(1010.5 + i)
+                    .append(",\"humidity\":").append(40 + i)
+                    .append(",\"weather\":[{\"id\":").append(800 + (i % 4))
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(1.5 + i)
+                    .append(",\"deg\":").append(10 * i)
+                    .append(",\"clouds\":0,\"rain\":0.25}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static InputStream asStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testStreamMatchesJsonObject() throws Throwable {
+        String json = createForecastJson("Mountain View", 16);
+
+        Forecast expected = ForecastJsonParser.parse(json);
+        Forecast actual = ForecastJsonParser.parse(asStream(json));
+
+        assertEquals(HttpURLConnection.HTTP_OK, actual.messageCode);
+        assertEquals(expected.cityName, actual.cityName);
+        assertEquals(expected.cityLatitude, actual.cityLatitude);
+        assertEquals(expected.cityLongitude, actual.cityLongitude);
+        assertEquals(16, expected.dayCount);
+        assertEquals(expected.dayCount, actual.dayCount);
+        for (int i = 0; i < expected.dayCount; i++) {
+            assertEquals(expected.pressure[i], actual.pressure[i]);
+            assertEquals(expected.humidity[i], actual.humidity[i]);
+            assertEquals(expected.windSpeed[i], actual.windSpeed[i]);
+            assertEquals(expected.windDirection[i], actual.windDirection[i]);
+            assertEquals(expected.high[i], actual.high[i]);
+            assertEquals(expected.low[i], actual.low[i]);
+            assertEquals(expected.description[i], actual.description[i]);
+            assertEquals(expected.weatherId[i], actual.weatherId[i]);
+        }
+    }
+
+    public void testStreamReportsServerError() throws Throwable {
+        Forecast forecast = ForecastJsonParser.parse(
+                asStream("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.messageCode);
+        assertEquals(0, forecast.dayCount);
+    }
+
+    public void testStreamRejectsMalformedPayload() throws Throwable {
+        String[] payloads = {
+                // truncated day object
+                "{\"cod\":\"200\",\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}}," +
+                        "\"list\":[{\"pressure\":1}]}",
+                // wrong token type
+                "{\"cod\":\"200\",\"city\":\"x\",\"list\":[]}",
+                // missing list
+                "{\"cod\":\"200\",\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}}}",
+        };
+        for (String payload : payloads) {
+            try {
+                ForecastJsonParser.parse(asStream(payload));
+                fail("Expected a JSONException for " + payload);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testParseBenchmark() throws Throwable {
+        benchmark(14);
+        benchmark(16);
+    }
+
+    private void benchmark(int days) throws Throwable {
+        byte[][] payloads = new byte[BENCHMARK_CITIES][];
+        for (int i = 0; i < BENCHMARK_CITIES; i++) {
+            payloads[i] = createForecastJson("City " + i, days).getBytes("UTF-8");
+        }
+
+        // warm up both paths so the first one measured doesn't pay for class loading
+        runStringPath(payloads);
+        runStreamPath(payloads);
+
+        long[] stringPath = measure(payloads, false);
+        long[] streamPath = measure(payloads, true);
+
+        Log.i(LOG_TAG, String.format(
+                "%d days x %d cities: JSONObject %d us, %d KB allocated, %d KB peak heap; " +
+                        "JsonReader %d us, %d KB allocated, %d KB peak heap",
+                days, BENCHMARK_CITIES,
+                stringPath[0] / 1000, stringPath[1] / 1024, stringPath[2] / 1024,
+                streamPath[0] / 1000, streamPath[1] / 1024, streamPath[2] / 1024));
+    }
+
+    /*
+        Returns {elapsed nanos, bytes allocated, peak heap growth in bytes} for the best of
+        BENCHMARK_ROUNDS rounds.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measure(byte[][] payloads, boolean stream) throws Throwable {
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        Runtime runtime = Runtime.getRuntime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            runtime.gc();
+            long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            long peakHeap = stream ? runStreamPath(payloads) : runStringPath(payloads);
+            long elapsed = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+
+            best[0] = Math.min(best[0], elapsed);
+            best[1] = Math.min(best[1], Debug.getThreadAllocSize());
+            best[2] = Math.min(best[2], Math.max(0, peakHeap - baseHeap));
+        }
+        return best;
+    }
+
+    /*
+        The original path: read the whole response into a String, then build the DOM.
+        Returns the highest heap use seen between cities.
+     */
+    private static long runStringPath(byte[][] payloads) throws Throwable {
+        Runtime runtime = Runtime.getRuntime();
+        long peak = 0;
+        for (byte[] payload : payloads) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(payload)));
+            StringBuffer buffer = new StringBuffer();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                buffer.append(line + "\n");
+            }
+            Forecast forecast = ForecastJsonParser.parse(buffer.toString());
+            assertTrue(forecast.dayCount > 0);
+            peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return peak;
+    }
+
+    private static long runStreamPath(byte[][] payloads) throws Throwable {
+        Runtime runtime = Runtime.getRuntime();
+        long peak = 0;
+        for (byte[] payload : payloads) {
+            Forecast forecast =
+                    ForecastJsonParser.parse(new ByteArrayInputStream(payload));
+            assertTrue(forecast.dayCount > 0);
+            peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return peak;
+    }
+}
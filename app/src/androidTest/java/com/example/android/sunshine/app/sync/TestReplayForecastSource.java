@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+public class TestReplayForecastSource extends AndroidTestCase {
+
+    private static final String LOCATION = "replay-source-test";
+    private static final long SEED = 42;
+    // far more than OpenWeatherMap would ever send
+    private static final int DAYS = 90;
+
+    private SyncTestFixture mFixture;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // only the preferred location, whatever the device was set to
+        mFixture = new SyncTestFixture(mContext);
+        mFixture.setUp(LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFixture.deleteLocation(LOCATION);
+        mFixture.tearDown();
+        super.tearDown();
+    }
+
+    public void testReplayIsRepeatable() {
+        ReplayForecastSource source = new ReplayForecastSource(DAYS, SEED);
+        Forecast first = source.replay(LOCATION, 0);
+        Forecast again = new ReplayForecastSource(DAYS, SEED).replay(LOCATION, 0);
+
+        assertEquals(DAYS, first.dayCount);
+        assertEquals(first.cityLatitude, again.cityLatitude);
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(first.weatherId[i], again.weatherId[i]);
+            assertEquals(first.high[i], again.high[i]);
+            assertTrue("Error: day " + i + " is warmer at night", first.low[i] < first.high[i]);
+        }
+
+        // the same place with other weather
+        Forecast next = source.replay(LOCATION, 1);
+        assertEquals(first.cityLatitude, next.cityLatitude);
+        boolean changed = false;
+        for (int i = 0; i < DAYS; i++) {
+            changed |= first.high[i] != next.high[i];
+        }
+        assertTrue("Error: a new revision replayed the same weather", changed);
+    }
+
+    public void testUnchangedUntilNextRevision() throws Exception {
+        ReplayForecastSource source = new ReplayForecastSource(DAYS, SEED);
+        ForecastSource.Fetch fetch = source.fetch(LOCATION, false);
+        assertNotNull(fetch.forecast);
+
+        // not stored yet
+        assertNotNull(source.fetch(LOCATION, true).forecast);
+        source.onStored(fetch);
+        assertNull(source.fetch(LOCATION, true).forecast);
+        // stored, but since lost
+        assertNotNull(source.fetch(LOCATION, false).forecast);
+
+        source.setRevision(1);
+        assertNotNull(source.fetch(LOCATION, true).forecast);
+    }
+
+    public void testSyncStoresEveryDay() throws Exception {
+        SyncResult syncResult = mFixture.sync(
+                mFixture.createAdapter(new ReplayForecastSource(DAYS, SEED)), false);
+        assertFalse(syncResult.hasError());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        LOCATION, System.currentTimeMillis()),
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(DAYS, cursor.getCount());
+        cursor.close();
+    }
+}
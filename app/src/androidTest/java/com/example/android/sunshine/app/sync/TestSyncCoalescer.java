@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    private static final String HOME = "94043";
+    private static final String AWAY = "London";
+    private static final long WINDOW = SyncCoalescer.WINDOW_MILLIS;
+
+    private SyncCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new SyncCoalescer();
+    }
+
+    public void testBurstIsMerged() {
+        assertTrue(mCoalescer.onRequest(HOME, false, 0));
+        assertFalse(mCoalescer.onRequest(HOME, false, 100));
+        // the pending sync reads the settings when it starts, so it covers a new location too
+        assertFalse(mCoalescer.onRequest(AWAY, false, 200));
+        // but not every location
+        assertTrue(mCoalescer.onRequest(HOME, true, 300));
+        assertFalse(mCoalescer.onRequest(HOME, true, 400));
+        assertFalse(mCoalescer.onRequest(HOME, false, 500));
+    }
+
+    public void testUnstartedRequestExpires() {
+        assertTrue(mCoalescer.onRequest(HOME, false, 0));
+        assertTrue(mCoalescer.onRequest(HOME, false, WINDOW));
+    }
+
+    public void testRequestJoinsRunningSync() {
+        assertTrue(mCoalescer.onRequest(HOME, false, 0));
+        mCoalescer.onSyncStarted(false, HOME);
+
+        // however long the sync has been running
+        assertFalse(mCoalescer.onRequest(HOME, false, 5 * WINDOW));
+        // the running sync read the location before it changed
+        assertTrue(mCoalescer.onRequest(AWAY, false, 5 * WINDOW));
+    }
+
+    public void testSingleSyncDoesNotCoverAll() {
+        mCoalescer.onSyncStarted(false, HOME);
+        assertTrue(mCoalescer.onRequest(HOME, true, 0));
+        mCoalescer.onSyncFinished(100);
+        // the sync of every location is still to come
+        assertFalse(mCoalescer.onRequest(HOME, true, 200));
+        assertFalse(mCoalescer.onRequest(HOME, false, 200));
+    }
+
+    public void testPeriodicSyncLeavesPendingRequest() {
+        assertTrue(mCoalescer.onRequest(HOME, true, 0));
+        // the periodic sync of the preferred location isn't the one asked for
+        mCoalescer.onSyncStarted(false, HOME);
+        mCoalescer.onSyncFinished(100);
+        assertFalse(mCoalescer.onRequest(HOME, true, 200));
+
+        mCoalescer.onSyncStarted(true, HOME);
+        mCoalescer.onSyncFinished(WINDOW);
+        assertFalse(mCoalescer.onRequest(HOME, true, WINDOW + 100));
+        assertTrue(mCoalescer.onRequest(HOME, true, 2 * WINDOW));
+    }
+
+    public void testFinishedSyncCoversWindow() {
+        assertTrue(mCoalescer.onRequest(HOME, false, 0));
+        mCoalescer.onSyncStarted(false, HOME);
+        mCoalescer.onSyncFinished(1000);
+
+        assertFalse(mCoalescer.onRequest(HOME, false, 1000 + WINDOW - 1));
+        assertTrue(mCoalescer.onRequest(AWAY, false, 1100));
+    }
+
+    public void testFinishedSyncExpires() {
+        mCoalescer.onSyncStarted(true, HOME);
+        mCoalescer.onSyncFinished(1000);
+        assertFalse(mCoalescer.onRequest(HOME, true, 1100));
+        assertTrue(mCoalescer.onRequest(HOME, true, 1000 + WINDOW));
+    }
+
+    public void testWearRequestJoinsRunningSync() {
+        assertFalse(mCoalescer.attachWearRequest());
+
+        mCoalescer.onSyncStarted(false, HOME);
+        assertTrue(mCoalescer.attachWearRequest());
+        assertTrue(mCoalescer.attachWearRequest());
+        assertTrue("Error: the watch wasn't answered", mCoalescer.onSyncFinished(100));
+
+        mCoalescer.onSyncStarted(false, HOME);
+        assertFalse(mCoalescer.onSyncFinished(200));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/*
+    Fetches forecasts for several locations from a keep-alive stub server, and counts the
+    connections it took.
+ */
+public class TestSyncHttpClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncHttpClient.class.getSimpleName();
+
+    private static final String[] LOCATIONS = {"94043", "London", "Paris", "Tokyo", "Sydney"};
+    private static final int READ_TIMEOUT_MILLIS = 500;
+    // what a new connection to a real server might cost before its first answer
+    private static final long CONNECTION_SETUP_MILLIS = 50;
+
+    private static final int SERVE_FORECAST = 0;
+    private static final int SERVE_UNAVAILABLE = 1;
+    private static final int STALL = 2;
+
+    private volatile int mFault = SERVE_FORECAST;
+    private String mBody;
+    private StubHttpServer mServer;
+    private HttpValidatorCache mCache;
+    private ForecastFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBody = TestForecastJsonParser.createForecastJson("Mountain View", 14);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                switch (mFault) {
+                    case SERVE_UNAVAILABLE:
+                        return new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE)
+                                .body("{\"cod\":\"503\",\"message\":\"Try again later\"}");
+                    case STALL:
+                        try {
+                            Thread.sleep(READ_TIMEOUT_MILLIS * 4);
+                        } catch (InterruptedException e) {
+                            // answer anyway
+                        }
+                        // fall through
+                    default:
+                        return new StubHttpServer.Response(HttpURLConnection.HTTP_OK).body(mBody);
+                }
+            }
+        });
+        mServer.start();
+
+        mCache = new HttpValidatorCache(new SyncStateStore(mContext));
+        clearValidators();
+        mFetcher = new ForecastFetcher(mCache,
+                new SyncHttpClient(SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                        READ_TIMEOUT_MILLIS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        clearValidators();
+        super.tearDown();
+    }
+
+    private void clearValidators() {
+        for (String location : LOCATIONS) {
+            mCache.clear(location);
+        }
+    }
+
+    private URL forecastUrl(String location) throws IOException {
+        return mServer.getUrl("/data/2.5/forecast/daily?q=" + location);
+    }
+
+    private void fetch(String location) throws IOException {
+        ForecastFetcher.Result result = mFetcher.fetch(forecastUrl(location), location);
+        assertEquals(ForecastFetcher.RESULT_FRESH, result.status);
+        mFetcher.release(result);
+    }
+
+    /**
+     * A connection per request, closed with disconnect() afterwards, the way the sync used to.
+     */
+    private void fetchAndDisconnect(String location) throws IOException {
+        HttpURLConnection urlConnection =
+                (HttpURLConnection) forecastUrl(location).openConnection();
+        try {
+            InputStream in = urlConnection.getInputStream();
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // just the download
+            }
+            in.close();
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    public void testLocationsShareOneConnection() throws Throwable {
+        for (String location : LOCATIONS) {
+            fetch(location);
+        }
+        // and so does the next sync
+        for (String location : LOCATIONS) {
+            fetch(location);
+        }
+        assertEquals(2 * LOCATIONS.length, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testErrorStatusKeepsConnection() throws Throwable {
+        mFault = SERVE_UNAVAILABLE;
+        try {
+            fetch(LOCATIONS[0]);
+            fail("Error: a 503 was taken for a forecast");
+        } catch (ForecastFetcher.HttpStatusException e) {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, e.responseCode);
+        }
+
+        mFault = SERVE_FORECAST;
+        fetch(LOCATIONS[0]);
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Throwable {
+        mFault = STALL;
+        long start = System.currentTimeMillis();
+        try {
+            fetch(LOCATIONS[0]);
+            fail("Error: the fetch waited out a stalled server");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < READ_TIMEOUT_MILLIS * 4);
+
+        // the timed out connection is dropped rather than handed to the next request
+        mFault = SERVE_FORECAST;
+        fetch(LOCATIONS[0]);
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    /**
+     * Reuse is checked by the connections the server accepted.  The timings are only logged:
+     * on a loaded device they can come out either way.
+     */
+    public void testReuseSavesConnections() throws Throwable {
+        mServer.setConnectionSetupMillis(CONNECTION_SETUP_MILLIS);
+
+        long start = System.nanoTime();
+        for (String location : LOCATIONS) {
+            fetchAndDisconnect(location);
+        }
+        long disconnectNanos = System.nanoTime() - start;
+        int disconnectConnections = mServer.getConnectionCount();
+
+        start = System.nanoTime();
+        for (String location : LOCATIONS) {
+            fetch(location);
+        }
+        long reuseNanos = System.nanoTime() - start;
+        int reuseConnections = mServer.getConnectionCount() - disconnectConnections;
+
+        Log.i(LOG_TAG, String.format("%d locations: disconnect %d connections, %.2f ms; "
+                        + "reuse %d connections, %.2f ms",
+                LOCATIONS.length, disconnectConnections, disconnectNanos / 1e6,
+                reuseConnections, reuseNanos / 1e6));
+        assertEquals(LOCATIONS.length, disconnectConnections);
+        assertEquals(1, reuseConnections);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    private static final long MILLIS = 1000000;
+
+    private SyncMetrics mMetrics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMetrics = SyncMetrics.getInstance();
+        mMetrics.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMetrics.reset();
+        super.tearDown();
+    }
+
+    private Cursor queryStage(String stage) {
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        int stageIndex = cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_STAGE);
+        while (cursor.moveToNext()) {
+            if (stage.equals(cursor.getString(stageIndex))) {
+                return cursor;
+            }
+        }
+        cursor.close();
+        fail("Error: no row for stage " + stage);
+        return null;
+    }
+
+    public void testStageHistogram() {
+        // 90 fast downloads and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            mMetrics.recordStageNanos(SyncMetrics.STAGE_DOWNLOAD, 3 * MILLIS);
+        }
+        for (int i = 0; i < 10; i++) {
+            mMetrics.recordStageNanos(SyncMetrics.STAGE_DOWNLOAD, 900 * MILLIS);
+        }
+
+        Cursor cursor = queryStage("download");
+        assertEquals(100, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_COUNT)));
+        assertEquals(90 * 3 + 10 * 900,
+                cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_TOTAL_MILLIS)));
+        assertEquals(900, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_MAX_MILLIS)));
+        // 3ms falls in the bucket below 4ms, 900ms in the one below 1024ms, capped at the max
+        assertEquals(4, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P50_MILLIS)));
+        assertEquals(4, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P90_MILLIS)));
+        assertEquals(900, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P99_MILLIS)));
+        assertEquals("4:90 1024:10",
+                cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_BUCKETS)));
+        cursor.close();
+
+        cursor = queryStage("parse");
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_COUNT)));
+        cursor.close();
+    }
+
+    public void testProjection() {
+        mMetrics.recordStageNanos(SyncMetrics.STAGE_BULK_INSERT, 10 * MILLIS);
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                new String[]{MetricsEntry.COLUMN_STAGE, MetricsEntry.COLUMN_COUNT},
+                null, null, null);
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToPosition(SyncMetrics.STAGE_BULK_INSERT));
+        assertEquals("bulk_insert", cursor.getString(0));
+        assertEquals(1, cursor.getInt(1));
+        cursor.close();
+    }
+
+    public void testLocations() {
+        mMetrics.recordLocation("94043", SunshineSyncAdapter.LOCATION_STATUS_OK, 5000, 14);
+        mMetrics.recordLocation("94043", SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, 0, 0);
+        mMetrics.recordLocation("London", SunshineSyncAdapter.LOCATION_STATUS_OK, 4000, 14);
+
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.LOCATIONS_URI,
+                null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("94043", cursor.getString(
+                cursor.getColumnIndex(MetricsEntry.COLUMN_LOCATION_SETTING)));
+        assertEquals(2, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_SYNCS)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_FAILURES)));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_LAST_STATUS)));
+        assertEquals(5000, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_BYTES)));
+        assertEquals(14, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_ROWS)));
+        cursor.close();
+    }
+
+    public void testSchedule() {
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.SCHEDULE_URI,
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_SYNC_INTERVAL)));
+        cursor.close();
+
+        mMetrics.recordSchedule(5400, 1800, 2, 0, "volatile");
+        cursor = mContext.getContentResolver().query(MetricsEntry.SCHEDULE_URI,
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(5400, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_SYNC_INTERVAL)));
+        assertEquals(1800, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_FLEX_TIME)));
+        assertEquals(2, cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_CHANGED_DAYS)));
+        assertEquals("volatile", cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_REASONS)));
+        assertTrue(cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_CHOSEN_AT)) > 0);
+        cursor.close();
+    }
+
+    public void testDump() {
+        mMetrics.recordStageNanos(SyncMetrics.STAGE_SYNC, 250 * MILLIS);
+        mMetrics.recordLocation("94043", SunshineSyncAdapter.LOCATION_STATUS_OK, 5000, 14);
+
+        StringWriter out = new StringWriter();
+        mMetrics.dump(new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("notify_wear"));
+        assertTrue(dump, dump.contains("94043: 1 syncs"));
+        assertTrue(dump, dump.contains("downloaded 5000 bytes, wrote 14 rows"));
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Replays recorded OpenWeatherMap responses through the whole sync: fetch, parse, store and
+    notify.  The responses come from a StubHttpServer on the loopback interface, which the
+    adapter is pointed at instead of OWM, so runs are repeatable and offline.
+
+    Every scenario is run a few times from the same starting point (no weather stored, no
+    validators) and logs the mean end-to-end sync time, the allocations made on the syncing
+    thread and in the whole process, and the database write time as SyncMetrics saw it.
+ */
+public class TestSyncReplayBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncReplayBenchmark.class.getSimpleName();
+
+    private static final String CITY_PREFIX = "replay-city-";
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    private static final String TRUNCATED_PAYLOAD =
+            "{\"cod\":\"200\",\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}}," +
+                    "\"list\":[{\"pressure\":1}]}";
+    private static final String WRONG_TYPE_PAYLOAD = "{\"cod\":\"200\",\"city\":\"x\",\"list\":[]}";
+    private static final String NOT_FOUND_PAYLOAD = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    // What the stub serves, by the location setting asked for
+    private final Map<String, byte[]> mResponses = new HashMap<String, byte[]>();
+    private final AtomicLong mBytesServed = new AtomicLong();
+
+    private SyncTestFixture mFixture;
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFixture = new SyncTestFixture(mContext);
+        mFixture.setUp(CITY_PREFIX + 0);
+
+        deleteWeather();
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                String location = Uri.parse(request.path).getQueryParameter("q");
+                byte[] body = mResponses.get(location);
+                if (body == null) {
+                    return new StubHttpServer.Response(500);
+                }
+                mBytesServed.addAndGet(body.length);
+                return new StubHttpServer.Response(200)
+                        .header("Content-Type", "application/json")
+                        .body(body);
+            }
+        });
+        mServer.start();
+
+        mAdapter = mFixture.createAdapter(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteWeather();
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        resetSyncState();
+        mFixture.tearDown();
+        SyncMetrics.getInstance().reset();
+        super.tearDown();
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private void resetSyncState() {
+        mFixture.resetSyncState(mResponses.keySet().toArray(new String[mResponses.size()]));
+    }
+
+    private void serveForecasts(int cities, int days) {
+        mResponses.clear();
+        for (int i = 0; i < cities; i++) {
+            mResponses.put(CITY_PREFIX + i, bytes(
+                    TestForecastJsonParser.createForecastJson("Replay City " + i, days)));
+        }
+    }
+
+    private static byte[] bytes(String body) {
+        try {
+            return body.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Saves every location being served, so that a batch sync picks them all up.
+     */
+    private void saveLocations() {
+        for (String location : mResponses.keySet()) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, location);
+            values.put(LocationEntry.COLUMN_CITY_NAME, location);
+            values.put(LocationEntry.COLUMN_COORD_LAT, 37.386051);
+            values.put(LocationEntry.COLUMN_COORD_LONG, -122.083847);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        }
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long stageTotalMillis(String stage) {
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                new String[]{MetricsEntry.COLUMN_STAGE, MetricsEntry.COLUMN_TOTAL_MILLIS},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (stage.equals(cursor.getString(0))) {
+                    return cursor.getLong(1);
+                }
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SyncResult sync(boolean allLocations) {
+        return mFixture.sync(mAdapter, allLocations);
+    }
+
+    /**
+     * Runs the sync over the responses being served and logs how it went.
+     *
+     * @return the SyncResult of the last run
+     */
+    private SyncResult benchmark(String name, boolean allLocations) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            deleteWeather();
+            resetSyncState();
+            sync(allLocations);
+        }
+        SyncMetrics.getInstance().reset();
+        mBytesServed.set(0);
+
+        SyncResult syncResult = null;
+        long totalNanos = 0;
+        long threadAllocations = 0;
+        long globalAllocations = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            // the same starting point every time: nothing stored, so nothing is a 304,
+            // and no backoff left over
+            deleteWeather();
+            resetSyncState();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetGlobalAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            syncResult = sync(allLocations);
+            totalNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            threadAllocations += Debug.getThreadAllocCount();
+            globalAllocations += Debug.getGlobalAllocCount();
+        }
+
+        long dbWriteMillis = stageTotalMillis("add_location") + stageTotalMillis("bulk_insert")
+                + stageTotalMillis("delete_old");
+        Log.i(LOG_TAG, String.format("%s: %.1f ms per sync, %d bytes, %d allocations on the "
+                        + "sync thread and %d in the process, %.1f ms writing the database",
+                name, totalNanos / 1e6 / MEASURED_ITERATIONS,
+                mBytesServed.get() / MEASURED_ITERATIONS,
+                threadAllocations / MEASURED_ITERATIONS,
+                globalAllocations / MEASURED_ITERATIONS,
+                (double) dbWriteMillis / MEASURED_ITERATIONS));
+        return syncResult;
+    }
+
+    public void testDayCounts() {
+        for (int days : new int[]{1, 7, 14, 16}) {
+            serveForecasts(1, days);
+            SyncResult syncResult = benchmark("1 city, " + days + " days", false);
+            assertFalse(syncResult.hasError());
+            assertEquals(days, countWeather());
+        }
+    }
+
+    public void testCityCounts() {
+        for (int cities : new int[]{1, 5, 20}) {
+            serveForecasts(cities, 14);
+            saveLocations();
+            SyncResult syncResult = benchmark(cities + " cities, 14 days", true);
+            assertFalse(syncResult.hasError());
+            assertEquals(cities * 14, countWeather());
+        }
+    }
+
+    public void testMalformedPayloads() {
+        serveForecasts(8, 14);
+        mResponses.put(CITY_PREFIX + 5, bytes(TRUNCATED_PAYLOAD));
+        mResponses.put(CITY_PREFIX + 6, bytes(WRONG_TYPE_PAYLOAD));
+        mResponses.put(CITY_PREFIX + 7, bytes(NOT_FOUND_PAYLOAD));
+        saveLocations();
+
+        SyncResult syncResult = benchmark("8 cities, 3 of them broken", true);
+        assertEquals(2, syncResult.stats.numParseExceptions);
+        assertEquals(1, syncResult.stats.numSkippedEntries);
+        // the good ones still made it
+        assertEquals(5 * 14, countWeather());
+    }
+
+    public void testMalformedPreferredLocation() {
+        serveForecasts(1, 14);
+        mResponses.put(CITY_PREFIX + 0, bytes(TRUNCATED_PAYLOAD));
+
+        benchmark("truncated payload for the preferred location", false);
+        assertEquals(0, countWeather());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                new SyncStateStore(mContext).getLocationStatus());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class TestSyncRetry extends AndroidTestCase {
+
+    private static final String LOCATION = "retry-test";
+
+    // What the stub does with the next request
+    private static final int SERVE_FORECAST = 0;
+    private static final int SERVE_UNAVAILABLE = 1;
+    private static final int DROP_CONNECTION = 2;
+    private static final int SERVE_NOT_FOUND = 3;
+    private static final int SERVE_UNAUTHORIZED = 4;
+
+    private volatile int mFault = SERVE_FORECAST;
+    private SyncTestFixture mFixture;
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFixture = new SyncTestFixture(mContext);
+        mFixture.setUp(LOCATION);
+        mFixture.resetSyncState(LOCATION);
+
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                switch (mFault) {
+                    case SERVE_UNAVAILABLE:
+                        return new StubHttpServer.Response(503);
+                    case DROP_CONNECTION:
+                        return null;
+                    case SERVE_NOT_FOUND:
+                        return new StubHttpServer.Response(404)
+                                .body("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+                    case SERVE_UNAUTHORIZED:
+                        return new StubHttpServer.Response(401);
+                    default:
+                        return new StubHttpServer.Response(200).body(
+                                TestForecastJsonParser.createForecastJson("Retry Test", 14));
+                }
+            }
+        });
+        mServer.start();
+        mAdapter = mFixture.createAdapter(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mFixture.resetSyncState(LOCATION);
+        SyncRetryReceiver.cancel(mContext);
+        mFixture.deleteLocation(LOCATION);
+        mFixture.tearDown();
+        super.tearDown();
+    }
+
+    /**
+     * Pretends the backoff has run out, keeping the attempt count.
+     */
+    private void expireBackoff() {
+        SyncStateStore store = new SyncStateStore(mContext);
+        store.setRetry(store.getRetryAttempt(), 0);
+        store.apply();
+    }
+
+    private SyncResult sync() {
+        return mFixture.sync(mAdapter, false);
+    }
+
+    private static void assertBackoff(long before, long after, long ceiling, SyncResult syncResult) {
+        long delayUntilMillis = syncResult.delayUntil * 1000;
+        assertTrue("Error: retried too soon, at " + delayUntilMillis,
+                delayUntilMillis >= before + ceiling / 2);
+        // delayUntil is rounded up to the second
+        assertTrue("Error: retried too late, at " + delayUntilMillis,
+                delayUntilMillis <= after + ceiling + 1000);
+    }
+
+    public void testDelays() {
+        SyncRetryPolicy policy = new SyncRetryPolicy(new SyncStateStore(mContext), new Random(42));
+        for (int attempt = 1; attempt <= 20; attempt++) {
+            long ceiling = Math.min(SyncRetryPolicy.MAX_DELAY_MILLIS,
+                    SyncRetryPolicy.BASE_DELAY_MILLIS << Math.min(attempt - 1, 16));
+            long delay = policy.getDelayMillis(attempt);
+            assertTrue("Error: delay " + delay + " for attempt " + attempt,
+                    delay >= ceiling / 2 && delay <= ceiling);
+        }
+
+        // the jitter actually spreads the retries out
+        Set<Long> delays = new HashSet<Long>();
+        for (int i = 0; i < 20; i++) {
+            delays.add(policy.getDelayMillis(3));
+        }
+        assertTrue(delays.size() > 1);
+    }
+
+    public void testServerDownBacksOff() {
+        mFault = SERVE_UNAVAILABLE;
+        long before = System.currentTimeMillis();
+        SyncResult syncResult = sync();
+        long after = System.currentTimeMillis();
+        assertTrue(syncResult.hasSoftError());
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertBackoff(before, after, SyncRetryPolicy.BASE_DELAY_MILLIS, syncResult);
+        SyncStateStore store = new SyncStateStore(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, store.getLocationStatus());
+        assertEquals(1, store.getRetryAttempt());
+        assertEquals(1, mServer.getRequestCount());
+
+        // Refreshing again during the backoff leaves the server alone
+        mFault = SERVE_FORECAST;
+        long delayUntil = syncResult.delayUntil;
+        syncResult = sync();
+        assertFalse(syncResult.hasError());
+        assertEquals(delayUntil, syncResult.delayUntil);
+        assertEquals(1, mServer.getRequestCount());
+
+        // Once it's over the sync goes through, and the backoff is forgotten
+        expireBackoff();
+        syncResult = sync();
+        assertFalse(syncResult.hasError());
+        assertEquals(0, syncResult.delayUntil);
+        assertEquals(2, mServer.getRequestCount());
+        store = new SyncStateStore(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, store.getLocationStatus());
+        assertEquals(0, store.getRetryAttempt());
+        assertEquals(0, store.getRetryAt());
+    }
+
+    public void testBackoffGrows() {
+        mFault = DROP_CONNECTION;
+        SyncResult syncResult = sync();
+        assertEquals(1, syncResult.stats.numIoExceptions);
+
+        expireBackoff();
+        long before = System.currentTimeMillis();
+        syncResult = sync();
+        long after = System.currentTimeMillis();
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertBackoff(before, after, 2 * SyncRetryPolicy.BASE_DELAY_MILLIS, syncResult);
+        assertEquals(2, new SyncStateStore(mContext).getRetryAttempt());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                new SyncStateStore(mContext).getLocationStatus());
+    }
+
+    public void testUnknownLocationIsNotRetried() {
+        mFault = SERVE_NOT_FOUND;
+        SyncResult syncResult = sync();
+        assertFalse(syncResult.hasSoftError());
+        assertEquals(1, syncResult.stats.numSkippedEntries);
+        assertEquals(0, syncResult.delayUntil);
+        SyncStateStore store = new SyncStateStore(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, store.getLocationStatus());
+        assertEquals(0, store.getRetryAttempt());
+
+        // nothing holds the next sync back
+        sync();
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testRefusedRequestIsNotRetried() {
+        mFault = SERVE_UNAUTHORIZED;
+        SyncResult syncResult = sync();
+        assertFalse(syncResult.hasSoftError());
+        assertTrue(syncResult.hasHardError());
+        assertEquals(1, syncResult.stats.numAuthExceptions);
+        assertEquals(0, syncResult.delayUntil);
+        assertEquals(0, new SyncStateStore(mContext).getRetryAttempt());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+public class TestSyncStateStore extends AndroidTestCase {
+
+    private static final String LOCATION = "sync-state-test";
+
+    private SharedPreferences mPrefs;
+    private String mStatusKey;
+    private String mLastNotificationKey;
+    private int mSavedStatus;
+    private long mSavedLastNotification;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mStatusKey = mContext.getString(R.string.pref_location_status_key);
+        mLastNotificationKey = mContext.getString(R.string.pref_last_notification);
+        mSavedStatus = mPrefs.getInt(mStatusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        mSavedLastNotification = mPrefs.getLong(mLastNotificationKey, 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncStateStore store = new SyncStateStore(mContext);
+        new HttpValidatorCache(store).clear(LOCATION);
+        store.apply();
+        mPrefs.edit()
+                .putInt(mStatusKey, mSavedStatus)
+                .putLong(mLastNotificationKey, mSavedLastNotification)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testWritesWaitForApply() {
+        mPrefs.edit().putInt(mStatusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN).commit();
+        SyncStateStore store = new SyncStateStore(mContext);
+        HttpValidatorCache validators = new HttpValidatorCache(store);
+
+        store.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        store.setLastNotification(1234L);
+        validators.put(LOCATION, new HttpValidatorCache.Validators("\"etag\"", null, "hash"));
+
+        // the store sees its own writes...
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, store.getLocationStatus());
+        assertEquals(1234L, store.getLastNotification());
+        assertEquals("\"etag\"", validators.get(LOCATION).eTag);
+        assertNull(validators.get(LOCATION).lastModified);
+        // ...and nobody else does yet
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, Utility.getLocationStatus(mContext));
+
+        assertTrue(store.apply());
+        assertFalse("Error: the writes were kept after apply", store.apply());
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        assertEquals(1234L, mPrefs.getLong(mLastNotificationKey, 0));
+        HttpValidatorCache.Validators stored =
+                new HttpValidatorCache(new SyncStateStore(mContext)).get(LOCATION);
+        assertEquals("\"etag\"", stored.eTag);
+        assertNull(stored.lastModified);
+        assertEquals("hash", stored.bodyHash);
+    }
+
+    public void testClearIsPendingToo() {
+        SyncStateStore store = new SyncStateStore(mContext);
+        HttpValidatorCache validators = new HttpValidatorCache(store);
+        validators.put(LOCATION, new HttpValidatorCache.Validators("\"etag\"", "date", "hash"));
+        store.apply();
+
+        validators.clear(LOCATION);
+        assertNull(validators.get(LOCATION).eTag);
+        assertEquals("\"etag\"", new HttpValidatorCache(new SyncStateStore(mContext))
+                .get(LOCATION).eTag);
+
+        store.apply();
+        assertNull(new HttpValidatorCache(new SyncStateStore(mContext)).get(LOCATION).eTag);
+    }
+}
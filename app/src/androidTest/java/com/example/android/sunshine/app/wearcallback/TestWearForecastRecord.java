@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearcallback;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.shared.WearForecastRecord;
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.Arrays;
+
+public class TestWearForecastRecord extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWearForecastRecord.class.getSimpleName();
+
+    private static final int JULIAN_DAY = 2457023;
+    private static final long CREATED_AT = 1420070400;
+
+    private static WearForecastRecord createRecord(int days) {
+        WearForecastRecord record = new WearForecastRecord();
+        record.flags = WearForecastRecord.FLAG_METRIC;
+        record.firstJulianDay = JULIAN_DAY;
+        record.createdAtSeconds = CREATED_AT;
+        for (int i = 0; i < days; i++) {
+            // below zero, and the odd big swing
+            record.addDay(800 + i, 5 - 3 * i + (i % 4 == 0 ? 40 : 0), -10 + i);
+        }
+        return record;
+    }
+
+    private static void assertRecordEquals(WearForecastRecord expected, WearForecastRecord actual) {
+        assertEquals(expected.flags, actual.flags);
+        assertEquals(expected.dayCount, actual.dayCount);
+        assertEquals(expected.firstJulianDay, actual.firstJulianDay);
+        assertEquals(expected.createdAtSeconds, actual.createdAtSeconds);
+        for (int i = 0; i < expected.dayCount; i++) {
+            assertEquals("Error: weather of day " + i, expected.weatherId[i], actual.weatherId[i]);
+            assertEquals("Error: high of day " + i, expected.high[i], actual.high[i]);
+            assertEquals("Error: low of day " + i, expected.low[i], actual.low[i]);
+        }
+    }
+
+    public void testRoundTrip() {
+        WearForecastRecord record = createRecord(WearForecastRecord.MAX_DAYS);
+        WearForecastRecord decoded = new WearForecastRecord();
+        assertTrue(decoded.decode(record.encode()));
+        assertRecordEquals(record, decoded);
+        assertTrue(decoded.isMetric());
+
+        // an empty forecast is still a forecast
+        WearForecastRecord empty = createRecord(0);
+        assertTrue(decoded.decode(empty.encode()));
+        assertRecordEquals(empty, decoded);
+    }
+
+    public void testSize() {
+        int days = 14;
+        byte[] encoded = createRecord(days).encode();
+        assertEquals(WearForecastRecord.HEADER_LENGTH + days * WearForecastRecord.DAY_LENGTH,
+                encoded.length);
+
+        // the same days the way today's weather used to go
+        WearForecastRecord record = createRecord(days);
+        DataMap dataMap = new DataMap();
+        for (int i = 0; i < days; i++) {
+            dataMap.putInt("weather_id_" + i, record.weatherId[i]);
+            dataMap.putString("high_temp_" + i, record.high[i] + "°");
+            dataMap.putString("low_temp_" + i, record.low[i] + "°");
+        }
+        dataMap.putLong("timestamp", CREATED_AT * 1000L);
+        int dataMapLength = dataMap.toByteArray().length;
+
+        Log.i(LOG_TAG, days + " days: record " + encoded.length + " bytes, DataMap "
+                + dataMapLength + " bytes");
+        assertTrue(encoded.length < dataMapLength);
+    }
+
+    public void testUnreadableRecordIsIgnored() {
+        WearForecastRecord decoded = createRecord(3);
+        byte[] encoded = createRecord(WearForecastRecord.MAX_DAYS).encode();
+
+        byte[] unversioned = encoded.clone();
+        unversioned[0] = 0;
+        assertFalse(decoded.decode(unversioned));
+        assertFalse(decoded.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertFalse(decoded.decode(Arrays.copyOf(encoded, WearForecastRecord.HEADER_LENGTH - 1)));
+        assertFalse(decoded.decode(null));
+        assertRecordEquals(createRecord(3), decoded);
+    }
+
+    public void testNewerVersionIsRead() {
+        // a later version's days, with two more bytes each that this one doesn't know about
+        WearForecastRecord record = createRecord(5);
+        byte[] encoded = record.encode();
+        int dayLength = WearForecastRecord.DAY_LENGTH + 2;
+        byte[] longer = new byte[WearForecastRecord.HEADER_LENGTH + record.dayCount * dayLength];
+        System.arraycopy(encoded, 0, longer, 0, WearForecastRecord.HEADER_LENGTH);
+        longer[0] = WearForecastRecord.VERSION + 1;
+        longer[3] = (byte) dayLength;
+        for (int i = 0; i < record.dayCount; i++) {
+            System.arraycopy(encoded, WearForecastRecord.HEADER_LENGTH + i * WearForecastRecord.DAY_LENGTH,
+                    longer, WearForecastRecord.HEADER_LENGTH + i * dayLength,
+                    WearForecastRecord.DAY_LENGTH);
+        }
+
+        WearForecastRecord decoded = new WearForecastRecord();
+        assertTrue(decoded.decode(longer));
+        assertRecordEquals(record, decoded);
+    }
+
+    public void testCreatedAfter2038() {
+        WearForecastRecord record = createRecord(1);
+        // past where a signed int of seconds runs out, in 2038
+        record.createdAtSeconds = Integer.MAX_VALUE + 1L;
+        WearForecastRecord decoded = new WearForecastRecord();
+        assertTrue(decoded.decode(record.encode()));
+        assertEquals(Integer.MAX_VALUE + 1L, decoded.createdAtSeconds);
+
+        record.createdAtSeconds = 0xffffffffL;
+        assertTrue(decoded.decode(record.encode()));
+        assertEquals(0xffffffffL, decoded.createdAtSeconds);
+    }
+
+    public void testImpossibleChangeIsRefused() {
+        WearForecastRecord record = createRecord(1);
+        record.addDay(800, record.high[0] + 200, record.low[0]);
+        try {
+            record.encode();
+            fail("Error: a 200 degree change was encoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
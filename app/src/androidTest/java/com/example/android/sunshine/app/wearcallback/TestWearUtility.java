@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearcallback;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.shared.WearForecastRecord;
+import com.google.android.gms.wearable.PutDataRequest;
+
+public class TestWearUtility extends AndroidTestCase {
+
+    private static final String LOCATION = "wear-window-test";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mUnitsKey;
+    private String mSavedLocation;
+    private String mSavedUnits;
+    private long mLocationId;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+        mPrefs.edit()
+                .putString(mLocationKey, LOCATION)
+                .putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        SettingsSnapshot.reload(mContext);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Wear Window");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)});
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationId)});
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedLocation == null) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mSavedLocation);
+        }
+        if (mSavedUnits == null) {
+            editor.remove(mUnitsKey);
+        } else {
+            editor.putString(mUnitsKey, mSavedUnits);
+        }
+        editor.commit();
+        SettingsSnapshot.reload(mContext);
+        super.tearDown();
+    }
+
+    private void insertDay(int day, int weatherId, double high, double low) {
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        weather.put(WeatherEntry.COLUMN_DATE, mToday + day * DAY_IN_MILLIS);
+        weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+    }
+
+    public void testNothingToSend() {
+        assertNull(WearUtility.prepareWeatherDataForWear(mContext));
+    }
+
+    public void testSendsTheWindowFromToday() {
+        insertDay(-1, 500, 30, 20);
+        insertDay(0, 800, 21.4, 9.6);
+        insertDay(1, 801, -2.5, -11);
+        insertDay(2, 500, 18, 4);
+        // day 3 is missing, so the watch gets the three days before it
+        insertDay(4, 600, 0, -5);
+
+        PutDataRequest request = WearUtility.prepareWeatherDataForWear(mContext);
+        assertNotNull(request);
+        assertEquals(WearForecastRecord.PATH, request.getUri().getPath());
+
+        WearForecastRecord record = new WearForecastRecord();
+        assertTrue(record.decode(request.getData()));
+        assertTrue(record.isMetric());
+        assertTrue(Math.abs(System.currentTimeMillis() / 1000 - record.createdAtSeconds) < 60);
+        Time time = new Time();
+        time.setToNow();
+        assertEquals(Time.getJulianDay(mToday, time.gmtoff), record.firstJulianDay);
+        assertEquals(3, record.dayCount);
+        assertEquals(800, record.weatherId[0]);
+        assertEquals(21, record.high[0]);
+        assertEquals(10, record.low[0]);
+        assertEquals(-2, record.high[1]);
+        assertEquals(-11, record.low[1]);
+        assertEquals(500, record.weatherId[2]);
+    }
+
+    public void testImperial() {
+        mPrefs.edit()
+                .putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        SettingsSnapshot.reload(mContext);
+        insertDay(0, 800, 20, -10);
+
+        WearForecastRecord record = new WearForecastRecord();
+        assertTrue(record.decode(WearUtility.prepareWeatherDataForWear(mContext).getData()));
+        assertFalse(record.isMetric());
+        assertEquals(68, record.high[0]);
+        assertEquals(14, record.low[0]);
+    }
+}
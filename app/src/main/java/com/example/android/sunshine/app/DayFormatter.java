@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats the forecast dates for {@link Utility}.
+ *
+ * Building a SimpleDateFormat parses its pattern and loads the locale's date symbols, and
+ * they aren't thread-safe, so every thread keeps its own set of formatters and only builds a
+ * new one when the locale or the time zone changes.  The finished labels are also kept in a
+ * cache shared by all threads and keyed by julian day.  It starts over when the day changes,
+ * since that moves "Today" and "Tomorrow", and when the locale or the time zone does.
+ */
+final class DayFormatter {
+
+    // Where each label lives in the array cached for a day
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_FULL_FRIENDLY = 2;
+    private static final int LABEL_DAY_NAME = 3;
+    private static final int LABEL_MONTH_DAY = 4;
+    private static final int LABEL_COUNT = 5;
+
+    // Well over the days any forecast covers; past this the cache starts over
+    private static final int MAX_CACHED_DAYS = 64;
+
+    // Bumped on a locale, time zone or clock change.  Formatters and labels from an older
+    // generation are thrown away.
+    private static volatile int sGeneration;
+    private static boolean sReceiverRegistered;
+
+    private static final ThreadLocal<Formatters> sFormatters = new ThreadLocal<Formatters>();
+
+    private static final Object sLabelLock = new Object();
+    // The labels and what they were made for, all guarded by sLabelLock
+    private static final SparseArray<String[]> sLabels = new SparseArray<String[]>();
+    private static int sLabelsGeneration = -1;
+    private static Locale sLabelsLocale;
+    private static long sLabelsGmtoff;
+    private static int sLabelsToday;
+
+    private static final BroadcastReceiver sChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    private DayFormatter() {
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    static String getFriendlyDayString(Context context, long dateInMillis,
+                                       boolean displayLongToday) {
+        return getLabel(context, dateInMillis,
+                displayLongToday ? LABEL_FRIENDLY_LONG_TODAY : LABEL_FRIENDLY);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        return getLabel(context, dateInMillis, LABEL_FULL_FRIENDLY);
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    static String getDayName(Context context, long dateInMillis) {
+        return getLabel(context, dateInMillis, LABEL_DAY_NAME);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    static String getFormattedMonthDay(Context context, long dateInMillis) {
+        return getLabel(context, dateInMillis, LABEL_MONTH_DAY);
+    }
+
+    /**
+     * @see Utility#formatDate(long)
+     */
+    static String formatDate(long dateInMillis) {
+        Formatters formatters = getFormatters();
+        return formatters.date.format(formatters.setDate(dateInMillis));
+    }
+
+    /**
+     * Drops every cached formatter and label.  Called on locale and time zone changes, and when
+     * the clock is set.
+     */
+    static void invalidate() {
+        synchronized (sLabelLock) {
+            sGeneration++;
+            sLabels.clear();
+        }
+    }
+
+    private static String getLabel(Context context, long dateInMillis, int label) {
+        registerReceiver(context);
+        Formatters formatters = getFormatters();
+        Time time = formatters.time;
+        time.setToNow();
+        long gmtoff = time.gmtoff;
+        int julianDay = Time.getJulianDay(dateInMillis, gmtoff);
+        int today = Time.getJulianDay(System.currentTimeMillis(), gmtoff);
+
+        synchronized (sLabelLock) {
+            if (sLabelsGeneration != formatters.generation || sLabelsLocale != formatters.locale
+                    || sLabelsGmtoff != gmtoff || sLabelsToday != today) {
+                // a new day, or a new locale or time zone: none of the labels are right anymore
+                sLabels.clear();
+                sLabelsGeneration = formatters.generation;
+                sLabelsLocale = formatters.locale;
+                sLabelsGmtoff = gmtoff;
+                sLabelsToday = today;
+            }
+            String[] labels = sLabels.get(julianDay);
+            if (labels != null && labels[label] != null) {
+                return labels[label];
+            }
+        }
+
+        String text = formatLabel(context, formatters, dateInMillis, julianDay, today, label);
+
+        synchronized (sLabelLock) {
+            // only keep it if the cache is still the one it was made for
+            if (sLabelsGeneration == formatters.generation && sLabelsLocale == formatters.locale
+                    && sLabelsGmtoff == gmtoff && sLabelsToday == today) {
+                String[] labels = sLabels.get(julianDay);
+                if (labels == null) {
+                    if (sLabels.size() >= MAX_CACHED_DAYS) {
+                        sLabels.clear();
+                    }
+                    labels = new String[LABEL_COUNT];
+                    sLabels.put(julianDay, labels);
+                }
+                labels[label] = text;
+            }
+        }
+        return text;
+    }
+
+    private static String formatLabel(Context context, Formatters formatters, long dateInMillis,
+                                      int julianDay, int today, int label) {
+        switch (label) {
+            case LABEL_FRIENDLY_LONG_TODAY:
+                // If the date we're building the String for is today's date, the format
+                // is "Today, June 24"
+                if (julianDay == today) {
+                    return context.getString(R.string.format_full_friendly_date,
+                            context.getString(R.string.today),
+                            getFormattedMonthDay(context, dateInMillis));
+                }
+                return getLabel(context, dateInMillis, LABEL_FRIENDLY);
+            case LABEL_FRIENDLY:
+                if (julianDay < today + 7) {
+                    // If the input date is less than a week in the future, just return the
+                    // day name.
+                    return getDayName(context, dateInMillis);
+                }
+                // Otherwise, use the form "Mon Jun 3"
+                return formatters.shortDate.format(formatters.setDate(dateInMillis));
+            case LABEL_FULL_FRIENDLY:
+                return context.getString(R.string.format_full_friendly_date,
+                        getDayName(context, dateInMillis),
+                        getFormattedMonthDay(context, dateInMillis));
+            case LABEL_DAY_NAME:
+                if (julianDay == today) {
+                    return context.getString(R.string.today);
+                } else if (julianDay == today + 1) {
+                    return context.getString(R.string.tomorrow);
+                }
+                // Otherwise, the format is just the day of the week (e.g "Wednesday")
+                return formatters.dayName.format(formatters.setDate(dateInMillis));
+            case LABEL_MONTH_DAY:
+                return formatters.monthDay.format(formatters.setDate(dateInMillis));
+            default:
+                throw new IllegalArgumentException("Unknown label: " + label);
+        }
+    }
+
+    private static Formatters getFormatters() {
+        Formatters formatters = sFormatters.get();
+        // Locale.getDefault() hands back the same instance until the locale changes, which
+        // can happen a little before the broadcast arrives
+        if (formatters == null || formatters.generation != sGeneration
+                || formatters.locale != Locale.getDefault()) {
+            formatters = new Formatters(sGeneration, Locale.getDefault());
+            sFormatters.set(formatters);
+        }
+        return formatters;
+    }
+
+    private static synchronized void registerReceiver(Context context) {
+        if (sReceiverRegistered) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        // the clock set by hand can move today, and with it every Today and Tomorrow label
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        // registered for the life of the process, so hold on to the application and not to
+        // whichever activity or service got here first
+        context.getApplicationContext().registerReceiver(sChangeReceiver, filter);
+        sReceiverRegistered = true;
+    }
+
+    /**
+     * One thread's formatters, for the locale and time zone current when they were made.
+     */
+    private static final class Formatters {
+        final int generation;
+        final Locale locale;
+        // picks up the default time zone when it is made
+        final Time time = new Time();
+        final SimpleDateFormat dayName;
+        final SimpleDateFormat monthDay;
+        final SimpleDateFormat shortDate;
+        final DateFormat date;
+        private final Date mDate = new Date();
+
+        Formatters(int generation, Locale locale) {
+            this.generation = generation;
+            this.locale = locale;
+            dayName = new SimpleDateFormat("EEEE", locale);
+            monthDay = new SimpleDateFormat("MMMM dd", locale);
+            shortDate = new SimpleDateFormat("EEE MMM dd", locale);
+            date = DateFormat.getDateInstance(DateFormat.DEFAULT, locale);
+        }
+
+        Date setDate(long dateInMillis) {
+            mDate.setTime(dateInMillis);
+            return mDate;
+        }
+    }
+}
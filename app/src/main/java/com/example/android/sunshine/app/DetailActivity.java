@@ -24,6 +24,8 @@ import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
+
 
 public class DetailActivity extends AppCompatActivity {
 
@@ -51,4 +53,11 @@ public class DetailActivity extends AppCompatActivity {
             supportPostponeEnterTransition();
         }
     }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // the detail widget opens this without going through MainActivity
+        AdaptiveSyncScheduler.noteAppUsed(this);
+    }
 }
\ No newline at end of file
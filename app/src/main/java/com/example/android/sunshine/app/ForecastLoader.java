@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A {@link CursorLoader} for the forecast list that also turns every row into a
+ * {@link Row} on the loader thread: the dates, descriptions and temperatures are formatted and
+ * the icons looked up once per load, so that {@link ForecastAdapter} only has to hand them to
+ * its views.
+ *
+ * The cursor it delivers is a {@link RowsCursor}, which is still the plain query result for
+ * everything else that reads it.
+ *
+ * The day strings are only right for the day they were made on, so the loader loads again
+ * when the date, the clock, the time zone or the locale changes, as well as when the weather
+ * does.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    /**
+     * One forecast list item, ready to bind.
+     */
+    public static class Row {
+        public final long date;
+        public final int weatherId;
+        // the icon for the future-day layout and the art for the today layout
+        public final int iconResourceId;
+        public final int artResourceId;
+        // null when the local graphics are in use
+        public final String artUrl;
+        public final String dayString;
+        // the day string for the today layout, "Today, June 8" rather than "Today"
+        public final String longDayString;
+        public final String description;
+        public final String descriptionContentDescription;
+        public final String high;
+        public final String highContentDescription;
+        public final String low;
+        public final String lowContentDescription;
+        public final String transitionName;
+
+        Row(Context context, Cursor cursor, boolean localGraphics) {
+            date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+            artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+            artUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+            dayString = Utility.getFriendlyDayString(context, date, false);
+            longDayString = cursor.getPosition() == 0
+                    ? Utility.getFriendlyDayString(context, date, true) : dayString;
+            description = Utility.getStringForWeatherCondition(context, weatherId);
+            descriptionContentDescription = context.getString(R.string.a11y_forecast, description);
+            high = Utility.formatTemperature(context, cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            highContentDescription = context.getString(R.string.a11y_high_temp, high);
+            low = Utility.formatTemperature(context, cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+            lowContentDescription = context.getString(R.string.a11y_low_temp, low);
+            // this enables better animations. even if we lose state due to a device rotation,
+            // the animator can use this to re-find the original view
+            transitionName = "iconView" + cursor.getPosition();
+        }
+    }
+
+    /**
+     * The query result together with the rows built from it.
+     */
+    public static class RowsCursor extends CursorWrapper {
+        private final Row[] mRows;
+
+        RowsCursor(Cursor cursor, Row[] rows) {
+            super(cursor);
+            mRows = rows;
+        }
+
+        public Row[] getRows() {
+            return mRows;
+        }
+    }
+
+    private final BroadcastReceiver mDayChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onContentChanged();
+        }
+    };
+    private boolean mReceiverRegistered;
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mReceiverRegistered) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            // the loader's context is the application's
+            getContext().registerReceiver(mDayChangeReceiver, filter);
+            mReceiverRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        if (mReceiverRegistered) {
+            getContext().unregisterReceiver(mDayChangeReceiver);
+            mReceiverRegistered = false;
+        }
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        return new RowsCursor(cursor, buildRows(getContext(), cursor));
+    }
+
+    /**
+     * Builds the rows for every position of the cursor, and leaves it before the first one.
+     */
+    static Row[] buildRows(Context context, Cursor cursor) {
+        // read once here rather than from SharedPreferences for every row
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        Row[] rows = new Row[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows[cursor.getPosition()] = new Row(context, cursor, localGraphics);
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+}
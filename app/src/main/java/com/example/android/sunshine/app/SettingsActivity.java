@@ -131,6 +131,9 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // the snapshot's own listener may not have run yet, and the sync and the loaders
+        // started below read it
+        SettingsSnapshot.reload(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // first clear locationStatus
@@ -146,6 +149,11 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        } else if ( key.equals(getString(R.string.pref_sync_all_locations_key)) ) {
+            // bring the other saved locations up to date straight away
+            if (Utility.isSyncingAllLocations(this)) {
+                SunshineSyncAdapter.syncAllLocationsImmediately(this);
+            }
         }
     }
 
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The user's settings, read from the default SharedPreferences in one go.
+ *
+ * A snapshot is immutable, and {@link #get(Context)} is a single volatile read, so the list,
+ * the widgets and the sync adapter can ask for it as often as they like without touching
+ * SharedPreferences or the resources for the keys.  One OnSharedPreferenceChangeListener
+ * swaps in a new snapshot whenever one of its settings changes.
+ *
+ * SharedPreferences calls its listeners on the main thread, in no particular order.  So another
+ * listener that acts on one of these settings, and code that writes one from another thread
+ * and needs to see its own write straight away, should call {@link #reload(Context)} first.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sSnapshot;
+    // Held here because SharedPreferences only keeps a weak reference to its listeners
+    private static Listener sListener;
+
+    public final String locationSetting;
+    public final boolean metric;
+    public final boolean syncAllLocations;
+    // the art pack's URL format, which is the Sunshine pack's when using the local graphics
+    public final String artPack;
+    public final boolean localGraphics;
+
+    private SettingsSnapshot(Keys keys, SharedPreferences prefs) {
+        locationSetting = prefs.getString(keys.location, keys.locationDefault);
+        metric = prefs.getString(keys.units, keys.unitsMetric).equals(keys.unitsMetric);
+        syncAllLocations = prefs.getBoolean(keys.syncAllLocations, keys.syncAllLocationsDefault);
+        artPack = prefs.getString(keys.artPack, keys.artPackSunshine);
+        localGraphics = artPack.equals(keys.artPackSunshine);
+    }
+
+    /**
+     * @return the current settings.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return reload(context);
+    }
+
+    /**
+     * Reads the settings again without waiting for the change listener.
+     */
+    public static synchronized SettingsSnapshot reload(Context context) {
+        if (sListener == null) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            sListener = new Listener(new Keys(context));
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        SettingsSnapshot snapshot = new SettingsSnapshot(sListener.mKeys,
+                PreferenceManager.getDefaultSharedPreferences(context));
+        sSnapshot = snapshot;
+        return snapshot;
+    }
+
+    private static synchronized void onSettingChanged(Keys keys, SharedPreferences prefs) {
+        sSnapshot = new SettingsSnapshot(keys, prefs);
+    }
+
+    /**
+     * The preference keys and defaults, looked up once.
+     */
+    private static class Keys {
+        final String location;
+        final String locationDefault;
+        final String units;
+        final String unitsMetric;
+        final String syncAllLocations;
+        final boolean syncAllLocationsDefault;
+        final String artPack;
+        final String artPackSunshine;
+
+        Keys(Context context) {
+            location = context.getString(R.string.pref_location_key);
+            locationDefault = context.getString(R.string.pref_location_default);
+            units = context.getString(R.string.pref_units_key);
+            unitsMetric = context.getString(R.string.pref_units_metric);
+            syncAllLocations = context.getString(R.string.pref_sync_all_locations_key);
+            syncAllLocationsDefault = Boolean.parseBoolean(
+                    context.getString(R.string.pref_sync_all_locations_default));
+            artPack = context.getString(R.string.pref_art_pack_key);
+            artPackSunshine = context.getString(R.string.pref_art_pack_sunshine);
+        }
+
+        boolean covers(String key) {
+            return location.equals(key) || units.equals(key) || syncAllLocations.equals(key)
+                    || artPack.equals(key);
+        }
+    }
+
+    private static class Listener implements SharedPreferences.OnSharedPreferenceChangeListener {
+        final Keys mKeys;
+
+        Listener(Keys keys) {
+            mKeys = keys;
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (mKeys.covers(key)) {
+                onSettingChanged(mKeys, sharedPreferences);
+            }
+        }
+    }
+}
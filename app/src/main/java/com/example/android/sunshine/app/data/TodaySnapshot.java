@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Today's forecast for the preferred location, read once and shared by everything that shows
+ * the current conditions: the Today widget, Muzei and the daily notification.
+ *
+ * A snapshot is immutable.  {@link #get(Context)} hands out the cached one for as long as it
+ * still describes the provider's data (by {@link WeatherProvider#getDataVersion()}), the
+ * preferred location, the units and the current day, and reads a new one otherwise.  The sync
+ * adapter calls {@link #publish(Context)} right after it writes, so the consumers it then
+ * wakes up all find the new snapshot waiting.
+ */
+public final class TodaySnapshot {
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    // The last read, whether or not it found a row
+    private static volatile Entry sEntry;
+
+    public final String locationSetting;
+    // the normalized date of the row, which is today's unless today hasn't been synced yet
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+    // high and low as Utility.formatTemperature gives them in the current units
+    public final String formattedHigh;
+    public final String formattedLow;
+
+    private final long mToday;
+
+    private TodaySnapshot(Context context, String locationSetting, long today, Cursor cursor) {
+        this.locationSetting = locationSetting;
+        date = cursor.getLong(INDEX_DATE);
+        weatherId = cursor.getInt(INDEX_WEATHER_ID);
+        description = cursor.getString(INDEX_SHORT_DESC);
+        high = cursor.getDouble(INDEX_MAX_TEMP);
+        low = cursor.getDouble(INDEX_MIN_TEMP);
+        formattedHigh = Utility.formatTemperature(context, high);
+        formattedLow = Utility.formatTemperature(context, low);
+        mToday = today;
+    }
+
+    /**
+     * @return true if this is the forecast for today, rather than for the first day after it.
+     */
+    public boolean isToday() {
+        return date == mToday;
+    }
+
+    /**
+     * @return the forecast for today, or for the first day after it that has one, or null if
+     *     there is no forecast for the preferred location.
+     */
+    public static TodaySnapshot get(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        boolean metric = Utility.isMetric(context);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Entry entry = sEntry;
+        if (entry != null && entry.version == WeatherProvider.getDataVersion()
+                && entry.today == today && entry.metric == metric
+                && entry.locationSetting.equals(locationSetting)) {
+            return entry.snapshot;
+        }
+        return load(context, locationSetting, metric, today).snapshot;
+    }
+
+    /**
+     * Reads a new snapshot whether or not the cached one is still current.
+     */
+    public static TodaySnapshot publish(Context context) {
+        return load(context, Utility.getPreferredLocation(context), Utility.isMetric(context),
+                WeatherContract.normalizeDate(System.currentTimeMillis())).snapshot;
+    }
+
+    private static Entry load(Context context, String locationSetting, boolean metric, long today) {
+        // Taken before the query, so a write that lands while it runs makes this entry stale
+        long version = WeatherProvider.getDataVersion();
+        TodaySnapshot snapshot = null;
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, today);
+        Cursor cursor = context.getContentResolver().query(weatherUri, TODAY_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                snapshot = new TodaySnapshot(context, locationSetting, today, cursor);
+            }
+            cursor.close();
+        }
+        Entry entry = new Entry(version, locationSetting, metric, today, snapshot);
+        sEntry = entry;
+        return entry;
+    }
+
+    private static class Entry {
+        final long version;
+        final String locationSetting;
+        final boolean metric;
+        final long today;
+        final TodaySnapshot snapshot;
+
+        Entry(long version, String locationSetting, boolean metric, long today,
+              TodaySnapshot snapshot) {
+            this.version = version;
+            this.locationSetting = locationSetting;
+            this.metric = metric;
+            this.today = today;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * A batch of weather rows held column by column in primitive arrays, for
+ * {@link WeatherProvider#bulkInsert(WeatherBatch)}.  Unlike a ContentValues[] it costs no
+ * boxing and no per-row maps, so it scales to very large ingests.
+ */
+public class WeatherBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    int size;
+    long[] locationId;
+    long[] date;
+    int[] weatherId;
+    String[] shortDesc;
+    double[] minTemp;
+    double[] maxTemp;
+    double[] humidity;
+    double[] pressure;
+    double[] windSpeed;
+    double[] degrees;
+
+    public WeatherBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherBatch(int capacity) {
+        locationId = new long[capacity];
+        date = new long[capacity];
+        weatherId = new int[capacity];
+        shortDesc = new String[capacity];
+        minTemp = new double[capacity];
+        maxTemp = new double[capacity];
+        humidity = new double[capacity];
+        pressure = new double[capacity];
+        windSpeed = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a row.  The date is normalized on insert, like everywhere else.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (size == this.date.length) {
+            grow(Math.max(DEFAULT_CAPACITY, size * 2));
+        }
+        this.locationId[size] = locationId;
+        this.date[size] = date;
+        this.weatherId[size] = weatherId;
+        this.shortDesc[size] = shortDesc;
+        this.minTemp[size] = minTemp;
+        this.maxTemp[size] = maxTemp;
+        this.humidity[size] = humidity;
+        this.pressure[size] = pressure;
+        this.windSpeed[size] = windSpeed;
+        this.degrees[size] = degrees;
+        size++;
+    }
+
+    public void clear() {
+        // drop the description references so they can be collected
+        for (int i = 0; i < size; i++) {
+            shortDesc[i] = null;
+        }
+        size = 0;
+    }
+
+    private void grow(int capacity) {
+        locationId = copyOf(locationId, capacity);
+        date = copyOf(date, capacity);
+        weatherId = copyOf(weatherId, capacity);
+        String[] newShortDesc = new String[capacity];
+        System.arraycopy(shortDesc, 0, newShortDesc, 0, size);
+        shortDesc = newShortDesc;
+        minTemp = copyOf(minTemp, capacity);
+        maxTemp = copyOf(maxTemp, capacity);
+        humidity = copyOf(humidity, capacity);
+        pressure = copyOf(pressure, capacity);
+        windSpeed = copyOf(windSpeed, capacity);
+        degrees = copyOf(degrees, capacity);
+    }
+
+    private long[] copyOf(long[] array, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(array, 0, copy, 0, size);
+        return copy;
+    }
+
+    private int[] copyOf(int[] array, int capacity) {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, size);
+        return copy;
+    }
+
+    private double[] copyOf(double[] array, int capacity) {
+        double[] copy = new double[capacity];
+        System.arraycopy(array, 0, copy, 0, size);
+        return copy;
+    }
+}
@@ -43,12 +43,18 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_METRICS = "metrics";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(new Time(), startDate);
+    }
+
+    // Same as normalizeDate(long), reusing the given Time so that loops don't allocate one
+    // per row.
+    public static long normalizeDate(Time time, long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -165,4 +171,102 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        The sync adapter's timings, kept in memory rather than in the database.  Read only.
+     */
+    public static final class MetricsEntry implements BaseColumns {
+
+        public static final String PATH_LOCATIONS = "locations";
+        public static final String PATH_SCHEDULE = "schedule";
+
+        // One row per sync stage
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+        // One row per location synced
+        public static final Uri LOCATIONS_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_LOCATIONS).build();
+        // A single row: the periodic sync schedule chosen last, and why
+        public static final Uri SCHEDULE_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_SCHEDULE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+        public static final String LOCATIONS_CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_METRICS + "/" + PATH_LOCATIONS;
+        public static final String SCHEDULE_CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_METRICS + "/" + PATH_SCHEDULE;
+
+        // The stage's name, e.g. "download" or "bulk_insert"
+        public static final String COLUMN_STAGE = "stage";
+        // How many times the stage ran, and how long it took in total and at worst
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+        public static final String COLUMN_MAX_MILLIS = "max_ms";
+        // Latency percentiles, to the upper bound of their power-of-two histogram bucket
+        public static final String COLUMN_P50_MILLIS = "p50_ms";
+        public static final String COLUMN_P90_MILLIS = "p90_ms";
+        public static final String COLUMN_P99_MILLIS = "p99_ms";
+        // The whole histogram, as "<upper bound in ms>:<count>" pairs separated by spaces
+        public static final String COLUMN_BUCKETS = "buckets";
+
+        public static final String[] STAGE_COLUMNS = {
+                _ID,
+                COLUMN_STAGE,
+                COLUMN_COUNT,
+                COLUMN_TOTAL_MILLIS,
+                COLUMN_MAX_MILLIS,
+                COLUMN_P50_MILLIS,
+                COLUMN_P90_MILLIS,
+                COLUMN_P99_MILLIS,
+                COLUMN_BUCKETS
+        };
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        public static final String COLUMN_SYNCS = "syncs";
+        public static final String COLUMN_FAILURES = "failures";
+        // The SunshineSyncAdapter.LocationStatus the last sync ended with
+        public static final String COLUMN_LAST_STATUS = "last_status";
+        // When the last sync ended, in milliseconds since the epoch
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+        // Bytes downloaded and weather rows written, over all the syncs
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ROWS = "rows";
+
+        public static final String[] LOCATION_COLUMNS = {
+                _ID,
+                COLUMN_LOCATION_SETTING,
+                COLUMN_SYNCS,
+                COLUMN_FAILURES,
+                COLUMN_LAST_STATUS,
+                COLUMN_LAST_SYNC,
+                COLUMN_BYTES,
+                COLUMN_ROWS
+        };
+
+        // The periodic sync interval and flex time in use, in seconds; 0 before the first
+        // sync since the process started
+        public static final String COLUMN_SYNC_INTERVAL = "sync_interval";
+        public static final String COLUMN_FLEX_TIME = "flex_time";
+        // How many of the next few days changed in the last sync, and how many syncs in a row
+        // changed nothing
+        public static final String COLUMN_CHANGED_DAYS = "changed_days";
+        public static final String COLUMN_STABLE_SYNCS = "stable_syncs";
+        // What moved the interval away from the default, e.g. "volatile metered"
+        public static final String COLUMN_REASONS = "reasons";
+        // When the interval was chosen, in milliseconds since the epoch
+        public static final String COLUMN_CHOSEN_AT = "chosen_at";
+
+        public static final String[] SCHEDULE_COLUMNS = {
+                _ID,
+                COLUMN_SYNC_INTERVAL,
+                COLUMN_FLEX_TIME,
+                COLUMN_CHANGED_DAYS,
+                COLUMN_STABLE_SYNCS,
+                COLUMN_REASONS,
+                COLUMN_CHOSEN_AT
+        };
+    }
 }
@@ -15,25 +15,84 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.example.android.sunshine.app.R;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * From Honeycomb on the database runs in write-ahead logging mode: the sync adapter's write
+ * transactions no longer lock out readers, and SQLiteDatabase hands queries from other threads
+ * their own read connections, so the UI, widgets, Muzei and Wear keep reading the last
+ * committed forecast while a sync is writing the next one.  The checkpoint policy comes from
+ * res/values/integers.xml.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version
+    // and add a step to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date_idx";
+
+    // Serves the weather/<setting> queries: the location and date lookup is a range search on
+    // the leading columns, rows come back already in date order, and the remaining columns are
+    // the ones the forecast list reads, so the list never touches the table.  The location
+    // side of the join is covered by the UNIQUE location_setting, and weather/<setting>/<date>
+    // by the UNIQUE (date, location_id).
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    private final int mWalAutoCheckpointPages;
+    private final int mWalJournalSizeLimit;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        Resources res = context.getResources();
+        mWalAutoCheckpointPages = res.getInteger(R.integer.wal_autocheckpoint_pages);
+        mWalJournalSizeLimit = res.getInteger(R.integer.wal_journal_size_limit_bytes);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLoggingJellyBean();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLoggingJellyBean() {
+        // applied to every connection as it is opened
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly() || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // Both pragmas return the new value, so they can't go through execSQL
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + mWalAutoCheckpointPages, null);
+        DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + mWalJournalSizeLimit, null);
     }
 
     @Override
@@ -81,18 +140,20 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (!WeatherDbMigrations.canMigrate(oldVersion)) {
+            // Nothing that old is worth keeping, so start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
     }
 }
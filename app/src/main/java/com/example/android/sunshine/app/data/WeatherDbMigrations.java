@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The schema history of the weather database, one step per version.  Upgrading runs every
+ * step between the old and the new version in order, so the cached forecasts survive an app
+ * update and nobody has to wait for a full re-sync.
+ *
+ * To change the schema: bump WeatherDbHelper.DATABASE_VERSION, make onCreate produce the new
+ * schema, and append a step here that takes the previous version's database to the same
+ * place.  Steps are never edited once released, so they spell out their SQL instead of
+ * using the current schema's constants.
+ */
+final class WeatherDbMigrations {
+
+    /**
+     * Databases older than this predate the migrations and are rebuilt from scratch.
+     */
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    /**
+     * Upgrades a database from {@link #fromVersion} to fromVersion + 1.
+     */
+    abstract static class Migration {
+        final int fromVersion;
+
+        Migration(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Ordered by fromVersion, with no gaps
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: index weather by location and date
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date_idx ON weather "
+                            + "(location_id, date, weather_id, short_desc, max, min);");
+                }
+            },
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * @return true if a database at oldVersion can be migrated rather than rebuilt.
+     */
+    static boolean canMigrate(int oldVersion) {
+        return oldVersion >= OLDEST_MIGRATABLE_VERSION;
+    }
+
+    /**
+     * Runs the steps from oldVersion up to newVersion.  SQLiteOpenHelper calls onUpgrade
+     * inside a transaction, so a step that throws leaves the database at oldVersion.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.fromVersion < version) {
+                continue;
+            }
+            if (migration.fromVersion >= newVersion) {
+                break;
+            }
+            if (migration.fromVersion != version) {
+                throw new IllegalStateException("No migration from version " + version);
+            }
+            migration.migrate(db);
+            version++;
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration from version " + version
+                    + " to " + newVersion);
+        }
+    }
+}
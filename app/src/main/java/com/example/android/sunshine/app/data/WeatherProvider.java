@@ -17,14 +17,28 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
@@ -34,8 +48,37 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
-
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final int METRICS = 400;
+    static final int METRICS_LOCATIONS = 401;
+    static final int METRICS_SCHEDULE = 402;
+
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+
+    // Used by bulkInsert(WeatherBatch).  The column order here is the bind order there.
+    private static final String sInsertWeatherSql =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Past this many changed days, a location's observers get one notification for the whole
+    // forecast rather than one per day
+    static final int MAX_DAY_NOTIFICATIONS = 3;
+
+    // Bumped after every write, so that TodaySnapshot can tell when it is out of date
+    private static final AtomicLong sDataVersion = new AtomicLong();
+
+    // Compiled once per database and reused by every bulkInsert(WeatherBatch)
+    private SQLiteStatement mInsertWeatherStatement;
+    private SQLiteDatabase mInsertWeatherDb;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +95,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -130,6 +173,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_METRICS + "/" +
+                WeatherContract.MetricsEntry.PATH_LOCATIONS, METRICS_LOCATIONS);
+        matcher.addURI(authority, WeatherContract.PATH_METRICS + "/" +
+                WeatherContract.MetricsEntry.PATH_SCHEDULE, METRICS_SCHEDULE);
         return matcher;
     }
 
@@ -164,6 +213,12 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case METRICS:
+                return WeatherContract.MetricsEntry.CONTENT_TYPE;
+            case METRICS_LOCATIONS:
+                return WeatherContract.MetricsEntry.LOCATIONS_CONTENT_TYPE;
+            case METRICS_SCHEDULE:
+                return WeatherContract.MetricsEntry.SCHEDULE_CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +268,21 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "metrics"
+            case METRICS: {
+                retCursor = SyncMetrics.getInstance().queryStages(projection);
+                break;
+            }
+            // "metrics/locations"
+            case METRICS_LOCATIONS: {
+                retCursor = SyncMetrics.getInstance().queryLocations(projection);
+                break;
+            }
+            // "metrics/schedule"
+            case METRICS_SCHEDULE: {
+                retCursor = SyncMetrics.getInstance().querySchedule(projection);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -251,6 +321,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        sDataVersion.incrementAndGet();
         getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
@@ -276,6 +347,7 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            sDataVersion.incrementAndGet();
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsDeleted;
@@ -310,44 +382,275 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
+            sDataVersion.incrementAndGet();
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Inserts or updates weather rows, writing only the ones that actually differ from what is
+     * stored.  Rows keep their _id when they are updated, and change notifications go out per
+     * (location, date) rather than for the whole weather table.
+     *
+     * @return the number of rows that were inserted or updated.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                Map<Long, Set<Long>> changedDates = new HashMap<Long, Set<Long>>();
                 db.beginTransaction();
-                int returnCount = 0;
+                int returnCount;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
+                    returnCount = upsertWeather(db, values, changedDates);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (returnCount > 0) {
+                    sDataVersion.incrementAndGet();
+                }
+                notifyWeatherChanged(db, uri, changedDates);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes the rows that are new or changed and records their dates, by location id, in
+     * changedDates.  Must be called inside a transaction.
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues[] values,
+                              Map<Long, Set<Long>> changedDates) {
+        // the stored rows for each location we've seen, and where each date sits in them
+        Map<Long, Cursor> storedRows = new HashMap<Long, Cursor>();
+        Map<Long, Map<Long, Integer>> storedPositions = new HashMap<Long, Map<Long, Integer>>();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (locationId == null || date == null) {
+                    // let SQLite reject it, just as a plain insert would
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        returnCount++;
+                    }
+                    continue;
+                }
+
+                Map<Long, Integer> positions = storedPositions.get(locationId);
+                if (positions == null) {
+                    Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                            new String[]{Long.toString(locationId)}, null, null, null);
+                    int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    positions = new HashMap<Long, Integer>();
+                    while (cursor.moveToNext()) {
+                        positions.put(cursor.getLong(dateIndex), cursor.getPosition());
+                    }
+                    storedRows.put(locationId, cursor);
+                    storedPositions.put(locationId, positions);
+                }
+
+                Set<Long> locationChanges = changedDates.get(locationId);
+                Integer position = positions.get(date);
+                if (position == null || (locationChanges != null && locationChanges.contains(date))) {
+                    // a new day, or one this batch already wrote: the unique constraint
+                    // replaces it if need be
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) == -1) {
+                        continue;
+                    }
+                } else {
+                    Cursor cursor = storedRows.get(locationId);
+                    cursor.moveToPosition(position);
+                    if (!differs(cursor, value)) {
+                        continue;
+                    }
+                    long id = cursor.getLong(cursor.getColumnIndex(WeatherContract.WeatherEntry._ID));
+                    db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                            WeatherContract.WeatherEntry._ID + " = ?",
+                            new String[]{Long.toString(id)});
+                }
+
+                if (locationChanges == null) {
+                    locationChanges = new HashSet<Long>();
+                    changedDates.put(locationId, locationChanges);
+                }
+                locationChanges.add(date);
+                returnCount++;
+            }
+        } finally {
+            for (Cursor cursor : storedRows.values()) {
+                cursor.close();
+            }
+        }
+        return returnCount;
+    }
+
+    /**
+     * @return true if any of the values differs from the cursor's current row.
+     */
+    private static boolean differs(Cursor stored, ContentValues value) {
+        for (Map.Entry<String, Object> entry : value.valueSet()) {
+            int index = stored.getColumnIndex(entry.getKey());
+            if (index == -1) {
+                return true;
+            }
+            Object incoming = entry.getValue();
+            if (incoming == null) {
+                if (!stored.isNull(index)) return true;
+            } else if (stored.isNull(index)) {
+                return true;
+            } else if (incoming instanceof Number) {
+                // compare as doubles so that an int stored in a REAL column still matches
+                if (((Number) incoming).doubleValue() != stored.getDouble(index)) return true;
+            } else if (!incoming.toString().equals(stored.getString(index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Notifies observers of each (location, date) that was written.  Cursors registered on a
+     * location's forecast are notified through the date URIs below them.
+     *
+     * Each notification is a call into ContentService and wakes every observer of the
+     * location, so once more than {@link #MAX_DAY_NOTIFICATIONS} of a location's days changed,
+     * as they do when a sync brings a new forecast, the location's URI is notified once
+     * instead.  Observers of the single days below it hear of that one as well.
+     */
+    private void notifyWeatherChanged(SQLiteDatabase db, Uri uri,
+                                      Map<Long, Set<Long>> changedDates) {
+        if (changedDates.isEmpty()) {
+            return;
+        }
+        Map<Long, String> locationSettings = new HashMap<Long, String>();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentResolver contentResolver = getContext().getContentResolver();
+        boolean notifiedTable = false;
+        for (Map.Entry<Long, Set<Long>> entry : changedDates.entrySet()) {
+            String locationSetting = locationSettings.get(entry.getKey());
+            if (locationSetting == null) {
+                // a row without a location can only be reached through the table itself
+                if (!notifiedTable) {
+                    contentResolver.notifyChange(uri, null);
+                    notifiedTable = true;
+                }
+                continue;
+            }
+            Uri locationUri = WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+            if (entry.getValue().size() > MAX_DAY_NOTIFICATIONS) {
+                contentResolver.notifyChange(locationUri, null);
+                continue;
+            }
+            for (Long date : entry.getValue()) {
+                contentResolver.notifyChange(locationUri.buildUpon()
+                        .appendPath(Long.toString(date))
+                        .build(), null);
+            }
+        }
+    }
+
+    /**
+     * Fast path for large ingests: inserts every row of the batch with a single precompiled
+     * statement and positional binds, inside one transaction.  Rows are not diffed against
+     * what is stored (the unique constraint replaces clashing days), and one change
+     * notification covers the whole weather table, so this is meant for filling a location
+     * that has no forecast yet rather than for routine refreshes.
+     *
+     * @return the number of rows inserted.
+     */
+    public synchronized int bulkInsert(WeatherBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (mInsertWeatherStatement == null || mInsertWeatherDb != db) {
+            if (mInsertWeatherStatement != null) {
+                mInsertWeatherStatement.close();
+            }
+            mInsertWeatherStatement = db.compileStatement(sInsertWeatherSql);
+            mInsertWeatherDb = db;
+        }
+        final SQLiteStatement statement = mInsertWeatherStatement;
+        final Time time = new Time();
+
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size; i++) {
+                statement.bindLong(1, batch.locationId[i]);
+                statement.bindLong(2, WeatherContract.normalizeDate(time, batch.date[i]));
+                statement.bindLong(3, batch.weatherId[i]);
+                if (batch.shortDesc[i] == null) {
+                    statement.bindNull(4);
+                } else {
+                    statement.bindString(4, batch.shortDesc[i]);
+                }
+                statement.bindDouble(5, batch.minTemp[i]);
+                statement.bindDouble(6, batch.maxTemp[i]);
+                statement.bindDouble(7, batch.humidity[i]);
+                statement.bindDouble(8, batch.pressure[i]);
+                statement.bindDouble(9, batch.windSpeed[i]);
+                statement.bindDouble(10, batch.degrees[i]);
+                try {
+                    if (statement.executeInsert() != -1) {
+                        returnCount++;
+                    }
+                } catch (SQLException e) {
+                    // same as SQLiteDatabase.insert: a row that breaks a constraint is skipped
+                    Log.e(LOG_TAG, "Error inserting weather row " + i, e);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            sDataVersion.incrementAndGet();
+            getContext().getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        return returnCount;
+    }
+
+    /**
+     * @return a stamp that changes whenever this process writes to the provider.
+     */
+    static long getDataVersion() {
+        return sDataVersion.get();
+    }
+
+    // For tests that need to hold a transaction open on the provider's own database
+    WeatherDbHelper getOpenHelper() {
+        return mOpenHelper;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mInsertWeatherStatement != null) {
+                mInsertWeatherStatement.close();
+                mInsertWeatherStatement = null;
+            }
+        }
         mOpenHelper.close();
         super.shutdown();
     }
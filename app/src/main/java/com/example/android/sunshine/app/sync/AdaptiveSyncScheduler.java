@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Picks the periodic sync interval after each sync, starting from
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL}:
+ * <ul>
+ *     <li>halved when the last sync changed several of the next few days, doubled once a few
+ *     syncs in a row have changed nothing;</li>
+ *     <li>halved while someone is looking: the app, or one of its widgets, was used in the
+ *     last {@link #RECENT_USE_MILLIS};</li>
+ *     <li>doubled on a metered network, and again on a low battery that isn't charging.</li>
+ * </ul>
+ * and kept between {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}.  The periodic sync is
+ * only set up again when the interval actually changes.
+ *
+ * Only the preferred location counts towards how changeable the forecast is.
+ *
+ * A widget counts as used when it is placed or resized, or when it is tapped, which opens one
+ * of the activities.  Widgets that merely sit on the home screen don't, so that overnight a
+ * stable forecast can still lengthen the interval.
+ */
+public class AdaptiveSyncScheduler {
+
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    public static final int MIN_INTERVAL = 60 * 60;
+    public static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // How many days ahead are compared; further out the forecast changes all the time
+    static final int COMPARED_DAYS = 3;
+    // A day has changed when its weather moved to another condition group (2xx thunderstorm,
+    // 5xx rain, 8xx clouds...) or a temperature moved by this much, in Celsius
+    static final double TEMPERATURE_CHANGE = 3;
+    // Changed days in one sync that make the forecast volatile
+    static final int VOLATILE_DAYS = 2;
+    // Syncs in a row without a changed day that make it stable
+    static final int STABLE_SYNCS = 3;
+    // The app counts as in use for this long after it was last opened
+    static final long RECENT_USE_MILLIS = 6 * DateUtils.HOUR_IN_MILLIS;
+    // The last use is only stored to the hour, so that most resumes have nothing to write
+    static final long APP_USE_BUCKET_MILLIS = DateUtils.HOUR_IN_MILLIS;
+    static final int LOW_BATTERY_PERCENT = 15;
+
+    static final String LAST_APP_USE_KEY = "last_app_use";
+
+    /**
+     * An interval and the reasons it was picked.
+     */
+    static class Schedule {
+        final int syncInterval;
+        final int flexTime;
+        final String reasons;
+
+        Schedule(int syncInterval, String reasons) {
+            this.syncInterval = syncInterval;
+            this.flexTime = syncInterval / 3;
+            this.reasons = reasons;
+        }
+    }
+
+    private final Context mContext;
+    private final SyncStateStore mStore;
+    private final SyncMetrics mMetrics;
+
+    // what the current sync found, or -1 if it didn't get as far as comparing
+    private int mChangedDays = -1;
+
+    AdaptiveSyncScheduler(Context context, SyncStateStore store, SyncMetrics metrics) {
+        mContext = context.getApplicationContext();
+        mStore = store;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Remembers that the app or one of its widgets is being looked at.  Cheap enough for
+     * onResume: the preferences are only written when the hour has moved on since the last
+     * use stored.
+     */
+    public static void noteAppUsed(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long bucket = toAppUseBucket(System.currentTimeMillis());
+        if (toAppUseBucket(prefs.getLong(LAST_APP_USE_KEY, 0)) != bucket) {
+            prefs.edit().putLong(LAST_APP_USE_KEY, bucket).apply();
+        }
+    }
+
+    static long toAppUseBucket(long millis) {
+        return millis - millis % APP_USE_BUCKET_MILLIS;
+    }
+
+    /**
+     * @return the interval the periodic sync was last set up with
+     */
+    static int getCurrentInterval(SyncStateStore store) {
+        int interval = store.getSyncInterval();
+        return interval == 0 ? SunshineSyncAdapter.SYNC_INTERVAL : interval;
+    }
+
+    static boolean dayChanged(int oldWeatherId, double oldHigh, double oldLow,
+                              int newWeatherId, double newHigh, double newLow) {
+        return oldWeatherId / 100 != newWeatherId / 100
+                || Math.abs(oldHigh - newHigh) >= TEMPERATURE_CHANGE
+                || Math.abs(oldLow - newLow) >= TEMPERATURE_CHANGE;
+    }
+
+    static Schedule choose(int changedDays, int stableSyncs, boolean inUse, boolean metered,
+                           boolean lowBattery) {
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        StringBuilder reasons = new StringBuilder();
+        if (changedDays >= VOLATILE_DAYS) {
+            interval /= 2;
+            reasons.append("volatile ");
+        } else if (stableSyncs >= STABLE_SYNCS) {
+            interval *= 2;
+            reasons.append("stable ");
+        }
+        if (inUse) {
+            interval /= 2;
+            reasons.append("in_use ");
+        }
+        if (metered) {
+            interval *= 2;
+            reasons.append("metered ");
+        }
+        if (lowBattery) {
+            interval *= 2;
+            reasons.append("low_battery ");
+        }
+        interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        return new Schedule(interval, reasons.toString().trim());
+    }
+
+    /**
+     * Tells the scheduler how the preferred location's forecast compared with the stored one.
+     *
+     * @param changedDays how many of the next {@link #COMPARED_DAYS} days changed; 0 if the
+     *                    forecast was unchanged
+     */
+    void onForecastCompared(int changedDays) {
+        mChangedDays = changedDays;
+    }
+
+    /**
+     * Chooses the interval at the end of a sync, and sets up the periodic sync again if it
+     * changed.  Does nothing if the sync never got to compare forecasts, since a failed sync
+     * says nothing about the weather.
+     */
+    void reschedule() {
+        int changedDays = mChangedDays;
+        mChangedDays = -1;
+        if (changedDays < 0) {
+            return;
+        }
+
+        int stableSyncs = changedDays == 0 ? mStore.getStableSyncs() + 1 : 0;
+        mStore.setStableSyncs(stableSyncs);
+
+        Schedule schedule = choose(changedDays, stableSyncs, isInUse(), isMetered(),
+                isBatteryLow());
+        int current = getCurrentInterval(mStore);
+        if (schedule.syncInterval != current) {
+            Log.d(LOG_TAG, "Syncing every " + schedule.syncInterval + "s instead of " + current
+                    + "s: " + schedule.reasons);
+            SunshineSyncAdapter.configurePeriodicSync(mContext, schedule.syncInterval,
+                    schedule.flexTime);
+            mStore.setSyncInterval(schedule.syncInterval);
+        }
+        mMetrics.recordSchedule(schedule.syncInterval, schedule.flexTime, changedDays,
+                stableSyncs, schedule.reasons);
+    }
+
+    boolean isInUse() {
+        long lastUse = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getLong(LAST_APP_USE_KEY, 0);
+        // stored to the hour, so this can count up to an hour less than it should
+        return System.currentTimeMillis() - lastUse < RECENT_USE_MILLIS;
+    }
+
+    private boolean isMetered() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
+    private boolean isBatteryLow() {
+        // the battery broadcast is sticky, so this reads it without registering anything
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return false;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+    }
+}
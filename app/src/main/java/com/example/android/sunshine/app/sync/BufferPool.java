@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A few byte arrays kept for reuse, so that a download doesn't allocate its body afresh every
+ * time.  When the pool is full the smallest array gives way, so after a sync or two it holds
+ * arrays big enough for a whole forecast.
+ *
+ * Safe to use from several threads at once.
+ */
+final class BufferPool {
+
+    private final int mMaxBuffers;
+    private final List<byte[]> mBuffers;
+
+    BufferPool(int maxBuffers) {
+        mMaxBuffers = maxBuffers;
+        mBuffers = new ArrayList<byte[]>(maxBuffers);
+    }
+
+    /**
+     * @return an array of at least minSize bytes, with anything in it.
+     */
+    synchronized byte[] acquire(int minSize) {
+        // the smallest that fits, to leave the big ones for big bodies
+        int best = -1;
+        for (int i = 0; i < mBuffers.size(); i++) {
+            int length = mBuffers.get(i).length;
+            if (length >= minSize && (best < 0 || length < mBuffers.get(best).length)) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return new byte[minSize];
+        }
+        return mBuffers.remove(best);
+    }
+
+    /**
+     * Hands an array back.  The caller mustn't touch it afterwards.
+     */
+    synchronized void release(byte[] buffer) {
+        if (mBuffers.size() < mMaxBuffers) {
+            mBuffers.add(buffer);
+            return;
+        }
+        int smallest = 0;
+        for (int i = 1; i < mBuffers.size(); i++) {
+            if (mBuffers.get(i).length < mBuffers.get(smallest).length) {
+                smallest = i;
+            }
+        }
+        if (mBuffers.get(smallest).length < buffer.length) {
+            mBuffers.set(smallest, buffer);
+        }
+    }
+}
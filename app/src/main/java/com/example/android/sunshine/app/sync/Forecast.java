@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+
+/**
+ * One location's forecast as a {@link ForecastSource} decodes it, kept in parallel primitive
+ * arrays so that a day costs no objects beyond its description string.  Temperatures are in
+ * Celsius, and day i is i days from today.
+ */
+public class Forecast {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // the error the source answered with, as an HTTP status; nothing else is filled in
+    // unless it is HTTP_OK
+    public int messageCode = HttpURLConnection.HTTP_OK;
+    public String cityName;
+    public double cityLatitude;
+    public double cityLongitude;
+
+    public int dayCount;
+    public double[] pressure = new double[DEFAULT_CAPACITY];
+    public int[] humidity = new int[DEFAULT_CAPACITY];
+    public double[] windSpeed = new double[DEFAULT_CAPACITY];
+    public double[] windDirection = new double[DEFAULT_CAPACITY];
+    public double[] high = new double[DEFAULT_CAPACITY];
+    public double[] low = new double[DEFAULT_CAPACITY];
+    public String[] description = new String[DEFAULT_CAPACITY];
+    public int[] weatherId = new int[DEFAULT_CAPACITY];
+
+    /**
+     * Makes room for one more day and returns its index.
+     */
+    int addDay() {
+        if (dayCount == pressure.length) {
+            int capacity = dayCount * 2;
+            pressure = grow(pressure, capacity);
+            humidity = grow(humidity, capacity);
+            windSpeed = grow(windSpeed, capacity);
+            windDirection = grow(windDirection, capacity);
+            high = grow(high, capacity);
+            low = grow(low, capacity);
+            weatherId = grow(weatherId, capacity);
+            String[] newDescription = new String[capacity];
+            System.arraycopy(description, 0, newDescription, 0, dayCount);
+            description = newDescription;
+        }
+        return dayCount++;
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads a forecast with a conditional GET.  The validators stored for the location are
+ * sent as If-None-Match / If-Modified-Since, and a full response is hashed so that a body
+ * identical to the last stored one can be recognised without parsing it.
+ *
+ * The response is asked for gzipped, and decoded straight into a byte array from a small pool
+ * that the caller hands back with {@link #release(Result)} once it has parsed the body.
+ *
+ * Connections come from a {@link SyncHttpClient} and go back to it, so one fetch after another
+ * reuses the same connection to the server.
+ *
+ * The fetcher never updates the {@link HttpValidatorCache} itself: the caller stores
+ * {@link Result#validators} only once the forecast has actually been written, otherwise a
+ * failed write would be masked by 304s until the server data changes.
+ */
+public class ForecastFetcher {
+
+    public static final int RESULT_FRESH = 0;
+    public static final int RESULT_NOT_MODIFIED = 1;
+    public static final int RESULT_UNCHANGED = 2;
+
+    private static final String HASH_ALGORITHM = "MD5";
+    // A 16 day forecast is about 6KB decoded; bigger bodies grow the array
+    private static final int INITIAL_BODY_SIZE = 8 * 1024;
+    // One body per concurrent fetch is all that is ever out at once
+    private static final int POOLED_BUFFERS = 4;
+
+    /**
+     * What came back from the server.  {@link #body} is only set for {@link #RESULT_FRESH},
+     * and is only good until the result is released.
+     */
+    public static class Result {
+        public final int status;
+        // the decoded body is the first length bytes; the rest is left over from whatever
+        // the array held before
+        public final byte[] body;
+        public final int length;
+        public final HttpValidatorCache.Validators validators;
+        // the bytes that came over the network, compressed or not, whether or not the body
+        // was kept
+        public final long bytes;
+        // opening the connection, then waiting for and reading the response
+        public final long connectNanos;
+        public final long downloadNanos;
+
+        Result(int status, byte[] body, int length, HttpValidatorCache.Validators validators,
+               long bytes, long connectNanos, long downloadNanos) {
+            this.status = status;
+            this.body = body;
+            this.length = length;
+            this.validators = validators;
+            this.bytes = bytes;
+            this.connectNanos = connectNanos;
+            this.downloadNanos = downloadNanos;
+        }
+    }
+
+    /**
+     * The server answered with an error status.  Kept apart from other IOExceptions so that
+     * callers can tell a location the server doesn't know from a server that is down.
+     */
+    public static class HttpStatusException extends ForecastSource.RefusedException {
+        HttpStatusException(int responseCode) {
+            super("HTTP " + responseCode, responseCode);
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, which below a GZIPInputStream are the bytes that came
+     * over the network.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int byteCount) throws IOException {
+            int read = super.read(buffer, offset, byteCount);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private final HttpValidatorCache mValidatorCache;
+    private final SyncHttpClient mHttpClient;
+    private final BufferPool mBufferPool = new BufferPool(POOLED_BUFFERS);
+
+    public ForecastFetcher(HttpValidatorCache validatorCache) {
+        this(validatorCache, SyncHttpClient.getInstance());
+    }
+
+    public ForecastFetcher(HttpValidatorCache validatorCache, SyncHttpClient httpClient) {
+        mValidatorCache = validatorCache;
+        mHttpClient = httpClient;
+    }
+
+    /**
+     * @throws HttpStatusException if the server answered with an error status
+     * @throws IOException if the forecast couldn't be downloaded
+     */
+    public Result fetch(URL url, String locationSetting) throws IOException {
+        HttpValidatorCache.Validators cached = mValidatorCache.get(locationSetting);
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        byte[] body = null;
+        // whether the response got to the point where the connection can be reused
+        boolean answered = false;
+        long start = System.nanoTime();
+        try {
+            urlConnection = mHttpClient.open(url);
+            // Asking for it ourselves turns off HttpURLConnection's transparent gzip, so we get
+            // to count the compressed bytes
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (cached.eTag != null) {
+                urlConnection.setRequestProperty("If-None-Match", cached.eTag);
+            }
+            if (cached.lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+            urlConnection.connect();
+            long connected = System.nanoTime();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                answered = true;
+                return new Result(RESULT_NOT_MODIFIED, null, 0, cached, 0,
+                        connected - start, System.nanoTime() - connected);
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // getInputStream() would throw without saying which error it was
+                answered = true;
+                throw new HttpStatusException(responseCode);
+            }
+
+            // Decode the body into memory, hashing it on the way, so that an unchanged
+            // forecast can be dropped before it is parsed.
+            CountingInputStream wire = new CountingInputStream(urlConnection.getInputStream());
+            inputStream = "gzip".equalsIgnoreCase(urlConnection.getContentEncoding())
+                    ? new GZIPInputStream(wire) : wire;
+            MessageDigest digest = newDigest();
+            body = mBufferPool.acquire(INITIAL_BODY_SIZE);
+            int length = 0;
+            int count;
+            while ((count = inputStream.read(body, length, body.length - length)) != -1) {
+                digest.update(body, length, count);
+                length += count;
+                if (length == body.length) {
+                    byte[] grown = mBufferPool.acquire(body.length * 2);
+                    System.arraycopy(body, 0, grown, 0, length);
+                    mBufferPool.release(body);
+                    body = grown;
+                }
+            }
+            answered = true;
+            long downloadNanos = System.nanoTime() - connected;
+            String bodyHash = toHex(digest.digest());
+
+            HttpValidatorCache.Validators validators = new HttpValidatorCache.Validators(
+                    urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"),
+                    bodyHash);
+            if (bodyHash.equals(cached.bodyHash)) {
+                return new Result(RESULT_UNCHANGED, null, 0, validators, wire.count,
+                        connected - start, downloadNanos);
+            }
+            Result result = new Result(RESULT_FRESH, body, length, validators, wire.count,
+                    connected - start, downloadNanos);
+            // the caller releases it now
+            body = null;
+            return result;
+        } finally {
+            if (body != null) {
+                mBufferPool.release(body);
+            }
+            if (urlConnection != null) {
+                if (answered) {
+                    mHttpClient.release(urlConnection, inputStream);
+                } else {
+                    mHttpClient.discard(urlConnection, inputStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the result's body back for the next fetch to use.  The body mustn't be touched
+     * afterwards.
+     */
+    public void release(Result result) {
+        if (result.body != null) {
+            mBufferPool.release(result.body);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is guaranteed to be present on every Android device
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
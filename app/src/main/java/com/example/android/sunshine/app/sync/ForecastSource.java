@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * Where the sync gets its forecasts from.  A source turns a location setting into a decoded
+ * {@link Forecast}; the sync does the storing, and never sees a URL or a field name.
+ *
+ * {@link OpenWeatherMapSource} is the one the app ships with; {@link ReplayForecastSource}
+ * makes forecasts up on the device, for loading the database and the UI without a network.
+ */
+public interface ForecastSource {
+
+    /**
+     * One location's answer.
+     */
+    class Fetch {
+        public final String locationSetting;
+        // null when the source knows the stored forecast is still current
+        public final Forecast forecast;
+        // the bytes that came over the network for it
+        public final long bytes;
+        // whatever the source wants back in onStored(), such as the validators that make
+        // the next request conditional; null if there's nothing to remember
+        final Object stored;
+
+        Fetch(String locationSetting, Forecast forecast, long bytes, Object stored) {
+            this.locationSetting = locationSetting;
+            this.forecast = forecast;
+            this.bytes = bytes;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * The source refused to give a forecast.  The code is in HTTP's terms, whatever the
+     * source speaks, so that the sync can tell a location the source doesn't know (404) from
+     * a source that is down (5xx) or one that won't serve us (401, 403).
+     */
+    class RefusedException extends IOException {
+        public final int responseCode;
+
+        public RefusedException(String message, int responseCode) {
+            super(message);
+            this.responseCode = responseCode;
+        }
+    }
+
+    /**
+     * Fetches and decodes the forecast for one location.  Safe to call from several threads
+     * at once.
+     *
+     * @param hasStoredForecast whether there's a forecast stored from today on for the
+     *                          location, without which an answer of "unchanged" is no use
+     * @throws RefusedException if the source refused the request
+     * @throws IOException if the source couldn't be reached
+     * @throws JSONException if what came back couldn't be decoded
+     */
+    Fetch fetch(String locationSetting, boolean hasStoredForecast)
+            throws IOException, JSONException;
+
+    /**
+     * Called once the fetch's forecast has been stored, or found unchanged, so that the source
+     * can tell next time whether anything changed.  Not called for a fetch whose forecast
+     * failed to store.
+     */
+    void onStored(Fetch fetch);
+}
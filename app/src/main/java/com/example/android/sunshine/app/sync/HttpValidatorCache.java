@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Remembers, per location setting, the HTTP validators (ETag and Last-Modified) and a hash
+ * of the body of the last forecast response that was successfully stored.  They let the
+ * next sync ask the server whether anything changed, and recognise an identical body when
+ * the server doesn't support conditional requests.
+ *
+ * They are kept in the {@link SyncStateStore}, so they are written along with the rest of the
+ * sync's state when the sync applies it.
+ */
+public class HttpValidatorCache {
+    private static final String KEY_ETAG = "http_etag_";
+    private static final String KEY_LAST_MODIFIED = "http_last_modified_";
+    private static final String KEY_BODY_HASH = "http_body_hash_";
+
+    /**
+     * The validators for one location.  Any of the fields may be null.
+     */
+    public static class Validators {
+        public final String eTag;
+        public final String lastModified;
+        public final String bodyHash;
+
+        public Validators(String eTag, String lastModified, String bodyHash) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.bodyHash = bodyHash;
+        }
+    }
+
+    private final SyncStateStore mStore;
+
+    public HttpValidatorCache(SyncStateStore store) {
+        mStore = store;
+    }
+
+    public Validators get(String locationSetting) {
+        return new Validators(
+                mStore.getString(KEY_ETAG + locationSetting),
+                mStore.getString(KEY_LAST_MODIFIED + locationSetting),
+                mStore.getString(KEY_BODY_HASH + locationSetting));
+    }
+
+    /**
+     * Stores the validators for a location.
+     */
+    public void put(String locationSetting, Validators validators) {
+        mStore.putString(KEY_ETAG + locationSetting, validators.eTag);
+        mStore.putString(KEY_LAST_MODIFIED + locationSetting, validators.lastModified);
+        mStore.putString(KEY_BODY_HASH + locationSetting, validators.bodyHash);
+    }
+
+    /**
+     * Forgets everything we know about a location, so that the next sync does a full fetch.
+     */
+    public void clear(String locationSetting) {
+        mStore.remove(KEY_ETAG + locationSetting);
+        mStore.remove(KEY_LAST_MODIFIED + locationSetting);
+        mStore.remove(KEY_BODY_HASH + locationSetting);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.Build;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Daily forecasts from OpenWeatherMap, downloaded with a conditional GET by a
+ * {@link ForecastFetcher} and decoded by the {@link ForecastJsonParser}.
+ *
+ * The validators of a forecast are only stored once the sync reports it stored, in the
+ * {@link SyncStateStore} the source was given, so they go out in the same write as the rest of
+ * the sync's state.
+ */
+public class OpenWeatherMapSource implements ForecastSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int DAYS = 14;
+
+    private final String mBaseUrl;
+    private final HttpValidatorCache mValidatorCache;
+    private final ForecastFetcher mFetcher;
+    private final SyncMetrics mMetrics;
+
+    /**
+     * @param baseUrl where to ask for forecasts, {@link #BASE_URL} unless tests and benchmarks
+     *                are replaying recorded responses
+     */
+    public OpenWeatherMapSource(String baseUrl, SyncStateStore store, SyncHttpClient httpClient,
+                                SyncMetrics metrics) {
+        mBaseUrl = baseUrl;
+        mValidatorCache = new HttpValidatorCache(store);
+        mFetcher = new ForecastFetcher(mValidatorCache, httpClient);
+        mMetrics = metrics;
+    }
+
+    @Override
+    public Fetch fetch(String locationSetting, boolean hasStoredForecast)
+            throws IOException, JSONException {
+        // A 304 is only useful if we still hold the forecast it refers to
+        if (!hasStoredForecast) {
+            mValidatorCache.clear(locationSetting);
+        }
+
+        // Ask OpenWeatherMap for the forecast, unless it's the one we already have
+        ForecastFetcher.Result result =
+                mFetcher.fetch(buildForecastUrl(locationSetting), locationSetting);
+        mMetrics.recordStageNanos(SyncMetrics.STAGE_CONNECT, result.connectNanos);
+        mMetrics.recordStageNanos(SyncMetrics.STAGE_DOWNLOAD, result.downloadNanos);
+        if (result.status == ForecastFetcher.RESULT_NOT_MODIFIED) {
+            // the stored validators are still the right ones
+            return new Fetch(locationSetting, null, result.bytes, null);
+        }
+        if (result.status == ForecastFetcher.RESULT_UNCHANGED) {
+            return new Fetch(locationSetting, null, result.bytes, result.validators);
+        }
+
+        Forecast forecast;
+        try {
+            if (result.length == 0) {
+                // Stream was empty.  No point in parsing.
+                throw new EOFException("Empty response for " + locationSetting);
+            }
+
+            long parseStart = System.nanoTime();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Stream-parse the body: no response string and no JSONObject tree.
+                forecast = ForecastJsonParser.parse(
+                        new ByteArrayInputStream(result.body, 0, result.length));
+            } else {
+                forecast = ForecastJsonParser.parse(
+                        new String(result.body, 0, result.length, "UTF-8"));
+            }
+            mMetrics.recordStage(SyncMetrics.STAGE_PARSE, parseStart);
+        } finally {
+            // the parsed forecast holds no reference to the body
+            mFetcher.release(result);
+        }
+        return new Fetch(locationSetting, forecast, result.bytes, result.validators);
+    }
+
+    @Override
+    public void onStored(Fetch fetch) {
+        if (fetch.stored != null) {
+            mValidatorCache.put(fetch.locationSetting,
+                    (HttpValidatorCache.Validators) fetch.stored);
+        }
+    }
+
+    private URL buildForecastUrl(String locationSetting) throws MalformedURLException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes forecasts up on the device, as many days long as asked for and for any location
+ * setting, so that the database, the widgets and the lists can be loaded with any amount of
+ * weather without the network.
+ *
+ * A forecast depends only on the seed, the location setting and the revision, so the same
+ * three always replay the same weather.  Bumping the revision with {@link #setRevision} is
+ * what the server publishing a new forecast would be; until then a location that has been
+ * stored is reported unchanged, like a 304 would be.
+ *
+ * Tests hand one to the sync adapter directly.  On a device, a debug build installed with
+ * -PreplayForecastDays=16 syncs from one instead of OpenWeatherMap.
+ */
+public class ReplayForecastSource implements ForecastSource {
+
+    // Real OpenWeatherMap condition codes, so that icons and art resolve
+    private static final int[] WEATHER_IDS = {800, 801, 803, 500, 502, 600, 211, 741};
+    private static final String[] DESCRIPTIONS =
+            {"Clear", "Clouds", "Clouds", "Rain", "Rain", "Snow", "Thunderstorm", "Fog"};
+
+    private final int mDayCount;
+    private final long mSeed;
+    private volatile int mRevision;
+    // the revision last stored for each location
+    private final Map<String, Integer> mStored = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * @param dayCount how many days each forecast has, from today
+     */
+    public ReplayForecastSource(int dayCount, long seed) {
+        mDayCount = dayCount;
+        mSeed = seed;
+    }
+
+    /**
+     * Moves every location on to a new forecast.
+     */
+    public void setRevision(int revision) {
+        mRevision = revision;
+    }
+
+    @Override
+    public Fetch fetch(String locationSetting, boolean hasStoredForecast) {
+        int revision = mRevision;
+        Integer stored = mStored.get(locationSetting);
+        if (hasStoredForecast && stored != null && stored == revision) {
+            return new Fetch(locationSetting, null, 0, null);
+        }
+        return new Fetch(locationSetting, replay(locationSetting, revision), 0, revision);
+    }
+
+    @Override
+    public void onStored(Fetch fetch) {
+        if (fetch.stored != null) {
+            mStored.put(fetch.locationSetting, (Integer) fetch.stored);
+        }
+    }
+
+    Forecast replay(String locationSetting, int revision) {
+        // The place stays put from one revision to the next; the weather doesn't
+        Random place = new Random(mSeed * 31 + locationSetting.hashCode());
+        Forecast forecast = new Forecast();
+        forecast.cityName = locationSetting;
+        forecast.cityLatitude = place.nextDouble() * 180 - 90;
+        forecast.cityLongitude = place.nextDouble() * 360 - 180;
+        double climate = place.nextDouble() * 30 - 5;
+
+        Random weather = new Random(place.nextLong() * 31 + revision);
+        for (int i = 0; i < mDayCount; i++) {
+            int day = forecast.addDay();
+            int condition = weather.nextInt(WEATHER_IDS.length);
+            forecast.weatherId[day] = WEATHER_IDS[condition];
+            forecast.description[day] = DESCRIPTIONS[condition];
+            forecast.high[day] = climate + weather.nextDouble() * 10;
+            forecast.low[day] = forecast.high[day] - 3 - weather.nextDouble() * 10;
+            forecast.pressure[day] = 990 + weather.nextDouble() * 40;
+            forecast.humidity[day] = 30 + weather.nextInt(71);
+            forecast.windSpeed[day] = weather.nextDouble() * 15;
+            forecast.windDirection[day] = weather.nextDouble() * 360;
+        }
+        return forecast;
+    }
+}
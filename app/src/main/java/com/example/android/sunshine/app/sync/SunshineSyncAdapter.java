@@ -3,9 +3,11 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentUris;
@@ -34,26 +36,31 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TodaySnapshot;
+import com.example.android.sunshine.app.data.WeatherBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.example.android.sunshine.app.wearcallback.WearGoogleClientHandler;
 import com.example.android.sunshine.app.wearcallback.WearUtility;
-import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -65,20 +72,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // Sync extra asking for every saved location to be refreshed, not just the preferred one
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "all_locations";
+    // How many forecasts a batch sync downloads at the same time
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+    // so that every debug build replaying forecasts loads the same weather
+    private static final long REPLAY_SEED = 0;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -91,279 +90,623 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_INVALID = 4;
 
     private WearGoogleClientHandler mWearGoogleClientHandler;
+    private final SyncStateStore mSyncState;
+    private final SyncRetryPolicy mRetryPolicy;
+    private final SyncCoalescer mCoalescer;
+    private final AdaptiveSyncScheduler mScheduler;
+    private final SyncMetrics mMetrics;
+    private final ForecastSource mForecastSource;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, OpenWeatherMapSource.BASE_URL, createReplaySource());
+    }
+
+    /**
+     * @return the made-up forecasts a debug build was asked to sync instead of OpenWeatherMap's,
+     * with -PreplayForecastDays, or null to sync the real ones
+     */
+    private static ForecastSource createReplaySource() {
+        if (BuildConfig.REPLAY_FORECAST_DAYS <= 0) {
+            return null;
+        }
+        return new ReplayForecastSource(BuildConfig.REPLAY_FORECAST_DAYS, REPLAY_SEED);
+    }
+
+    /**
+     * @param forecastBaseUrl where to ask for forecasts instead of OpenWeatherMap, so that
+     *                        tests and benchmarks can replay recorded responses
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, String forecastBaseUrl) {
+        this(context, autoInitialize, forecastBaseUrl, null);
+    }
+
+    /**
+     * @param forecastSource where to get forecasts instead of OpenWeatherMap, such as a
+     *                       {@link ReplayForecastSource} to load the database without the network
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, ForecastSource forecastSource) {
+        this(context, autoInitialize, null, forecastSource);
+    }
+
+    private SunshineSyncAdapter(Context context, boolean autoInitialize, String forecastBaseUrl,
+                                ForecastSource forecastSource) {
         super(context, autoInitialize);
+        mSyncState = new SyncStateStore(context);
+        mRetryPolicy = new SyncRetryPolicy(mSyncState);
+        mCoalescer = SyncCoalescer.getInstance();
+        mMetrics = SyncMetrics.getInstance();
+        mScheduler = new AdaptiveSyncScheduler(context, mSyncState, mMetrics);
+        if (forecastSource == null) {
+            // validators are kept in mSyncState, so they go out with the rest of the sync's
+            // state; the HTTP client is shared with every other sync, so that they all reuse
+            // the same connections
+            forecastSource = new OpenWeatherMapSource(forecastBaseUrl, mSyncState,
+                    SyncHttpClient.getInstance(), mMetrics);
+        }
+        mForecastSource = forecastSource;
         mWearGoogleClientHandler = WearGoogleClientHandler.getInstance();
         mWearGoogleClientHandler.start(getContext().getApplicationContext());
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        boolean allLocations = extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)
+                || Utility.isSyncingAllLocations(getContext());
+        mCoalescer.onSyncStarted(allLocations, Utility.getPreferredLocation(getContext()));
+        try {
+            syncWithBackoff(allLocations, provider, syncResult);
+        } finally {
+            if (mCoalescer.onSyncFinished()) {
+                // a watch asked for the weather while we were busy
+                notifyWear();
+            }
+        }
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    private void syncWithBackoff(boolean allLocations, ContentProviderClient provider,
+                                 SyncResult syncResult) {
+        long retryAt = mRetryPolicy.getRetryAt(System.currentTimeMillis());
+        if (retryAt > 0) {
+            // Still backing off from a failed sync.  Refreshing again won't help the server
+            // recover; the retry is already scheduled.
+            Log.d(LOG_TAG, "Backing off until " + retryAt);
+            syncResult.delayUntil = toDelayUntil(retryAt);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (allLocations) {
+                performBatchSync(syncResult);
+            } else {
+                performSync(provider, syncResult);
+            }
+        } finally {
+            if (syncResult.hasSoftError()) {
+                retryAt = mRetryPolicy.onFailure(System.currentTimeMillis());
+                syncResult.delayUntil = toDelayUntil(retryAt);
+                SyncRetryReceiver.schedule(getContext(), retryAt);
+            } else if (mRetryPolicy.onSuccess()) {
+                SyncRetryReceiver.cancel(getContext());
+            }
+            mScheduler.reschedule();
+            // the status, validators, backoff, schedule and notification time this sync set,
+            // in one write
+            mSyncState.apply();
+            mMetrics.recordStage(SyncMetrics.STAGE_SYNC, start);
+        }
+    }
+
+    /**
+     * @return the time in seconds that {@link SyncResult#delayUntil} takes, rounded up so
+     * that the SyncManager doesn't come back before the backoff is over.
+     */
+    private static long toDelayUntil(long timeInMillis) {
+        return (timeInMillis + 999) / 1000;
+    }
+
+    /**
+     * Counts a failed download in the SyncResult the way the SyncManager reads it: failures
+     * that may clear up by themselves are soft errors and get the sync retried, the others
+     * are not.
+     *
+     * @return the location status the failure amounts to
+     */
+    private static @LocationStatus int countFetchError(IOException e, SyncResult syncResult) {
+        if (e instanceof ForecastSource.RefusedException) {
+            return countServerError(((ForecastSource.RefusedException) e).responseCode,
+                    syncResult);
+        }
+        syncResult.stats.numIoExceptions++;
+        return LOCATION_STATUS_SERVER_DOWN;
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    /**
+     * Like {@link #countFetchError}, for an error code the server sent, either as the HTTP
+     * status or as the forecast's message code.
+     */
+    private static @LocationStatus int countServerError(int code, SyncResult syncResult) {
+        if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+            // the location is wrong, not the server
+            syncResult.stats.numSkippedEntries++;
+            return LOCATION_STATUS_INVALID;
+        }
+        if (SyncRetryPolicy.isRetryable(code)) {
+            syncResult.stats.numIoExceptions++;
+        } else if (code == HttpURLConnection.HTTP_UNAUTHORIZED
+                || code == HttpURLConnection.HTTP_FORBIDDEN) {
+            syncResult.stats.numAuthExceptions++;
+        } else {
+            syncResult.stats.numSkippedEntries++;
+        }
+        return LOCATION_STATUS_SERVER_DOWN;
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Refreshes the preferred location.
+     */
+    private void performSync(ContentProviderClient provider, SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting sync");
+        String locationQuery = Utility.getPreferredLocation(getContext());
 
+        long bytes = 0;
+        int rows = 0;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+            LocationForecast fetched = fetchForecast(locationQuery);
+            bytes = fetched.fetch.bytes;
+            if (fetched.forecast == null) {
+                // Nothing changed upstream, so there's nothing to parse, store or announce.
+                Log.d(LOG_TAG, "Sync Complete. Forecast unchanged");
+                markStored(fetched);
+                mSyncState.setLocationStatus(LOCATION_STATUS_OK);
+                mScheduler.onForecastCompared(0);
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            if (fetched.forecast.messageCode != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Server error " + fetched.forecast.messageCode);
+                mSyncState.setLocationStatus(
+                        countServerError(fetched.forecast.messageCode, syncResult));
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            rows = storeForecast(fetched, getLocalWeatherProvider(provider));
+            markStored(fetched);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            mSyncState.setLocationStatus(countFetchError(e, syncResult));
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            syncResult.stats.numParseExceptions++;
+            mSyncState.setLocationStatus(LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            mMetrics.recordLocation(locationQuery, mSyncState.getLocationStatus(), bytes, rows);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Refreshes every location in the location table, plus the preferred one, in one pass.
+     * Forecasts are downloaded and parsed by a small pool of threads; whatever arrives intact
+     * is written with a single bulkInsert, so the whole batch lands in one transaction.  A
+     * location that fails is logged and counted in the SyncResult, and doesn't hold up the
+     * others.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    private void performBatchSync(SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting batch sync");
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        Map<String, Long> locationIds = getSavedLocations();
+        if (!locationIds.containsKey(preferredLocation)) {
+            // not stored yet, addLocation will create it once we know the city
+            locationIds.put(preferredLocation, null);
+        }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_CONCURRENT_FETCHES, locationIds.size()));
+        Map<String, Future<LocationForecast>> pending =
+                new LinkedHashMap<String, Future<LocationForecast>>();
+        for (final String locationSetting : locationIds.keySet()) {
+            pending.put(locationSetting, executor.submit(new Callable<LocationForecast>() {
+                @Override
+                public LocationForecast call() throws Exception {
+                    return fetchForecast(locationSetting);
                 }
+            }));
+        }
+        executor.shutdown();
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        @LocationStatus int preferredStatus = LOCATION_STATUS_UNKNOWN;
+        List<ContentValues> rows = new ArrayList<ContentValues>();
+        List<LocationForecast> stored = new ArrayList<LocationForecast>();
+        for (Map.Entry<String, Future<LocationForecast>> entry : pending.entrySet()) {
+            String locationSetting = entry.getKey();
+            boolean preferred = locationSetting.equals(preferredLocation);
+            @LocationStatus int status;
+            long bytes = 0;
+            int locationRows = 0;
+            try {
+                LocationForecast fetched = entry.getValue().get();
+                bytes = fetched.fetch.bytes;
+                if (fetched.forecast == null) {
+                    markStored(fetched);
+                    status = LOCATION_STATUS_OK;
+                    if (preferred) {
+                        mScheduler.onForecastCompared(0);
+                    }
+                } else if (fetched.forecast.messageCode == HttpURLConnection.HTTP_OK) {
+                    if (preferred && fetched.hadStoredForecast) {
+                        // before the bulkInsert below replaces what's stored
+                        mScheduler.onForecastCompared(countChangedDays(locationSetting,
+                                fetched.forecast, julianStartDay));
+                    }
+                    Long locationId = locationIds.get(locationSetting);
+                    if (locationId == null) {
+                        long addStart = System.nanoTime();
+                        locationId = addLocation(locationSetting, fetched.forecast.cityName,
+                                fetched.forecast.cityLatitude, fetched.forecast.cityLongitude);
+                        mMetrics.recordStage(SyncMetrics.STAGE_ADD_LOCATION, addStart);
+                    }
+                    locationRows = fetched.forecast.dayCount;
+                    Collections.addAll(rows,
+                            toContentValues(fetched.forecast, locationId, julianStartDay));
+                    stored.add(fetched);
+                    status = LOCATION_STATUS_OK;
+                } else {
+                    Log.w(LOG_TAG, "Server error " + fetched.forecast.messageCode
+                            + " for " + locationSetting);
+                    status = countServerError(fetched.forecast.messageCode, syncResult);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Log.e(LOG_TAG, "Error syncing " + locationSetting, cause);
+                if (cause instanceof JSONException) {
+                    syncResult.stats.numParseExceptions++;
+                    status = LOCATION_STATUS_SERVER_INVALID;
+                } else if (cause instanceof IOException) {
+                    status = countFetchError((IOException) cause, syncResult);
+                } else {
+                    syncResult.stats.numIoExceptions++;
+                    status = LOCATION_STATUS_SERVER_DOWN;
+                }
+            } catch (InterruptedException e) {
+                // The sync was cancelled; store what we already have
+                Log.w(LOG_TAG, "Batch sync interrupted");
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (preferred) {
+                preferredStatus = status;
             }
+            // the rows go out in one bulkInsert below, so these are the rows sent, not
+            // the ones that turn out to have changed
+            mMetrics.recordLocation(locationSetting, status, bytes, locationRows);
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        int changed = 0;
+        if (rows.size() > 0) {
+            ContentValues[] cvArray = new ContentValues[rows.size()];
+            rows.toArray(cvArray);
+            long insertStart = System.nanoTime();
+            changed = getContext().getContentResolver()
+                    .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+            mMetrics.recordStage(SyncMetrics.STAGE_BULK_INSERT, insertStart);
+            syncResult.stats.numUpdates += changed;
+
+            // delete old data so we don't build up an endless history
+            int deleted = deleteOldWeather(julianStartDay);
+            syncResult.stats.numDeletes += deleted;
+
+            for (LocationForecast fetched : stored) {
+                markStored(fetched);
+            }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+            if (changed > 0 || deleted > 0) {
+                publishWeatherChange();
+            }
+        }
+        Log.d(LOG_TAG, "Batch Sync Complete. " + stored.size() + " of " + pending.size()
+                + " locations updated, " + changed + " of " + rows.size() + " rows changed");
+        if (preferredStatus != LOCATION_STATUS_UNKNOWN) {
+            mSyncState.setLocationStatus(preferredStatus);
+        }
+    }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    /**
+     * A fetched forecast, along with whether there was one stored before it.
+     * {@link #forecast} is null when the source told us nothing changed.
+     */
+    private static class LocationForecast {
+        final String locationSetting;
+        final boolean hadStoredForecast;
+        final ForecastSource.Fetch fetch;
+        final Forecast forecast;
+
+        LocationForecast(boolean hadStoredForecast, ForecastSource.Fetch fetch) {
+            this.locationSetting = fetch.locationSetting;
+            this.hadStoredForecast = hadStoredForecast;
+            this.fetch = fetch;
+            this.forecast = fetch.forecast;
+        }
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Downloads and parses the forecast for one location.  Safe to call from several threads
+     * at once.
+     */
+    private LocationForecast fetchForecast(String locationQuery) throws IOException, JSONException {
+        boolean hadStoredForecast = hasStoredForecast(locationQuery);
+        return new LocationForecast(hadStoredForecast,
+                mForecastSource.fetch(locationQuery, hadStoredForecast));
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Tells the source the forecast made it into the database, or was found unchanged.
+     */
+    private void markStored(LocationForecast fetched) {
+        mForecastSource.onStored(fetched.fetch);
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * @return the location settings stored in the location table, mapped to their row ids.
+     */
+    private Map<String, Long> getSavedLocations() {
+        Map<String, Long> locationIds = new LinkedHashMap<String, Long>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationIds.put(cursor.getString(1), cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        return locationIds;
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * @return true if there is weather stored for today onwards at the given location.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Take a parsed forecast and write it to the database, then let everything that shows
+     * the weather know about it.
+     *
+     * @param fetched the forecast to store
+     * @param localProvider the WeatherProvider running in this process, or null if it can't
+     *                      be reached directly
+     * @return the number of weather rows that changed.
+     */
+    private int storeForecast(LocationForecast fetched, WeatherProvider localProvider) {
+        Forecast forecast = fetched.forecast;
+        String locationSetting = fetched.locationSetting;
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        long addStart = System.nanoTime();
+        long locationId = addLocation(locationSetting, forecast.cityName,
+                forecast.cityLatitude, forecast.cityLongitude);
+        mMetrics.recordStage(SyncMetrics.STAGE_ADD_LOCATION, addStart);
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-                double high;
-                double low;
+        if (fetched.hadStoredForecast) {
+            mScheduler.onForecastCompared(
+                    countChangedDays(locationSetting, forecast, julianStartDay));
+        }
 
-                String description;
-                int weatherId;
+        // add to database
+        int changed = 0;
+        if ( forecast.dayCount > 0 ) {
+            long insertStart = System.nanoTime();
+            if (!fetched.hadStoredForecast && localProvider != null) {
+                // Nothing stored to diff against, so take the precompiled columnar path
+                changed = localProvider.bulkInsert(
+                        toWeatherBatch(forecast, locationId, julianStartDay));
+            } else {
+                // only the rows that changed are written
+                changed = getContext().getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_URI,
+                        toContentValues(forecast, locationId, julianStartDay));
+            }
+            mMetrics.recordStage(SyncMetrics.STAGE_BULK_INSERT, insertStart);
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+            // delete old data so we don't build up an endless history
+            int deleted = deleteOldWeather(julianStartDay);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+            if (changed > 0 || deleted > 0) {
+                publishWeatherChange();
+            }
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + changed + " of " + forecast.dayCount + " rows changed");
+        mSyncState.setLocationStatus(LOCATION_STATUS_OK);
+        return changed;
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * @return how many of the next {@link AdaptiveSyncScheduler#COMPARED_DAYS} days of the
+     * new forecast differ noticeably from the stored ones.  Days with nothing stored don't
+     * count.
+     */
+    private int countChangedDays(String locationSetting, Forecast forecast,
+                                 int julianStartDay) {
+        int days = Math.min(forecast.dayCount, AdaptiveSyncScheduler.COMPARED_DAYS);
+        if (days == 0) {
+            return 0;
+        }
+        Time dayTime = new Time();
+        long[] dates = new long[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = dayTime.setJulianDay(julianStartDay + i);
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, dates[0]),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return 0;
+        }
+        int changed = 0;
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(0);
+                if (date > dates[days - 1]) {
+                    break;
+                }
+                for (int i = 0; i < days; i++) {
+                    if (dates[i] == date && AdaptiveSyncScheduler.dayChanged(
+                            cursor.getInt(1), cursor.getDouble(2), cursor.getDouble(3),
+                            forecast.weatherId[i], forecast.high[i], forecast.low[i])) {
+                        changed++;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return changed;
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * Turns a parsed forecast into weather table rows for the given location.
+     *
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, which means that we need to know the GMT offset to translate this data
+     * properly.
+     *
+     * Since this data is also sent in-order and the first day is always the
+     * current day, we're going to take advantage of that to get a nice
+     * normalized UTC date for all of our weather.
+     */
+    private static ContentValues[] toContentValues(Forecast forecast,
+                                                   long locationId, int julianStartDay) {
+        ContentValues[] cvArray = new ContentValues[forecast.dayCount];
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        for (int i = 0; i < forecast.dayCount; i++) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(julianStartDay+i);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, forecast.humidity[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, forecast.pressure[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, forecast.windSpeed[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, forecast.windDirection[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, forecast.high[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, forecast.low[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, forecast.description[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, forecast.weatherId[i]);
+
+            cvArray[i] = weatherValues;
+        }
+        return cvArray;
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Same as {@link #toContentValues}, as a columnar batch.
+     */
+    private static WeatherBatch toWeatherBatch(Forecast forecast,
+                                               long locationId, int julianStartDay) {
+        WeatherBatch batch = new WeatherBatch(forecast.dayCount);
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        for (int i = 0; i < forecast.dayCount; i++) {
+            batch.add(locationId,
+                    dayTime.setJulianDay(julianStartDay + i),
+                    forecast.weatherId[i],
+                    forecast.description[i],
+                    forecast.low[i],
+                    forecast.high[i],
+                    forecast.humidity[i],
+                    forecast.pressure[i],
+                    forecast.windSpeed[i],
+                    forecast.windDirection[i]);
+        }
+        return batch;
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * @return the WeatherProvider behind the given client if it lives in this process,
+     * otherwise null.
+     */
+    private static WeatherProvider getLocalWeatherProvider(ContentProviderClient provider) {
+        if (provider == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        return getLocalWeatherProviderHoneycomb(provider);
+    }
 
-                cVVector.add(weatherValues);
-            }
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static WeatherProvider getLocalWeatherProviderHoneycomb(ContentProviderClient provider) {
+        ContentProvider local = provider.getLocalContentProvider();
+        return local instanceof WeatherProvider ? (WeatherProvider) local : null;
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                notifyWear();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * Deletes the weather for every day before the given one.
+     *
+     * @return the number of rows deleted.
+     */
+    private int deleteOldWeather(int julianStartDay) {
+        long start = System.nanoTime();
+        Time dayTime = new Time();
+        int deleted = getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+        mMetrics.recordStage(SyncMetrics.STAGE_DELETE_OLD, start);
+        return deleted;
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        }
+    /**
+     * Reads today's forecast once and lets everything that shows it know it changed.  They
+     * all read the same {@link TodaySnapshot}, so the provider is only queried here.
+     */
+    private void publishWeatherChange() {
+        TodaySnapshot.publish(getContext());
+        long start = System.nanoTime();
+        updateWidgets();
+        mMetrics.recordStage(SyncMetrics.STAGE_NOTIFY_WIDGETS, start);
+        start = System.nanoTime();
+        updateMuzei();
+        mMetrics.recordStage(SyncMetrics.STAGE_NOTIFY_MUZEI, start);
+        start = System.nanoTime();
+        notifyWeather();
+        mMetrics.recordStage(SyncMetrics.STAGE_NOTIFY_NOTIFICATION, start);
+        start = System.nanoTime();
+        notifyWear();
+        mMetrics.recordStage(SyncMetrics.STAGE_NOTIFY_WEAR, start);
     }
 
     private void updateWidgets() {
@@ -385,13 +728,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     private void notifyWear(){
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather_update");
-        WearUtility.prepareWeatherDataForWear(getContext(), putDataMapRequest);
-        if(putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_WEATHER_ID) &&
-                putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_HIGH_TEMPERATURE) &&
-                putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_LOW_TEMPERATURE) &&
-                putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_TIMESTAMP)){
-            mWearGoogleClientHandler.sendData(putDataMapRequest);
+        PutDataRequest putDataRequest = WearUtility.prepareWeatherDataForWear(getContext());
+        if(putDataRequest != null){
+            mWearGoogleClientHandler.sendData(putDataRequest);
             Log.e("rohit_app", "wear has been updated from sync service");
         }
     }
@@ -406,23 +745,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         if ( displayNotifications ) {
 
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
+            long lastSync = mSyncState.getLastNotification();
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                TodaySnapshot today = TodaySnapshot.get(context);
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null && today.isToday()) {
+                    int weatherId = today.weatherId;
+                    String desc = today.description;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -458,8 +789,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     // Define the text of the forecast.
                     String contentText = String.format(context.getString(R.string.format_notification),
                             desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            today.formattedHigh,
+                            today.formattedLow);
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -494,11 +825,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
 
                     //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                    mSyncState.setLastNotification(System.currentTimeMillis());
                 }
-                cursor.close();
             }
         }
     }
@@ -573,15 +901,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless a sync already asked
+     * for or running will do
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        if (SyncCoalescer.getInstance().shouldRequest(context, false)) {
+            Bundle bundle = new Bundle();
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+            ContentResolver.requestSync(getSyncAccount(context),
+                    context.getString(R.string.content_authority), bundle);
+        }
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh every saved location immediately,
+     * unless a sync already asked for or running will do
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
+        if (SyncCoalescer.getInstance().shouldRequest(context, true)) {
+            Bundle bundle = new Bundle();
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+            bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+            ContentResolver.requestSync(getSyncAccount(context),
+                    context.getString(R.string.content_authority), bundle);
+        }
     }
 
     /**
@@ -625,9 +972,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private static void onAccountCreated(Account newAccount, Context context) {
         /*
-         * Since we've created an account
+         * Since we've created an account.  If it is being made again, the adaptive scheduler
+         * has already picked an interval, and only sets it up again when that changes.
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        int syncInterval = AdaptiveSyncScheduler.getCurrentInterval(new SyncStateStore(context));
+        SunshineSyncAdapter.configurePeriodicSync(context, syncInterval, syncInterval / 3);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -643,17 +992,4 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
     }
-
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Keeps bursts of sync requests from turning into back-to-back syncs of the same location.
+ *
+ * A request is dropped when a sync that will cover it is already on its way:
+ * <ul>
+ *     <li>one asked for within the last {@link #WINDOW_MILLIS} that hasn't started yet,
+ *     since it reads the settings when it starts;</li>
+ *     <li>one running now for the same preferred location, which the request joins;</li>
+ *     <li>one for the same preferred location that finished within the window.</li>
+ * </ul>
+ * A sync of every location covers a sync of the preferred one, not the other way round.
+ *
+ * A watch asking for the weather during a sync joins it too, and gets its answer when the
+ * sync is done instead of the forecast the sync is about to replace.
+ *
+ * Process-wide, like the sync adapter it keeps track of.
+ */
+public class SyncCoalescer {
+
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    public static final long WINDOW_MILLIS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final SyncCoalescer sInstance = new SyncCoalescer();
+
+    // a sync asked for that hasn't started yet
+    private boolean mPending;
+    private boolean mPendingAll;
+    private long mPendingSince;
+
+    private boolean mRunning;
+    private boolean mRunningAll;
+    private String mRunningLocation;
+    private boolean mWearWaiting;
+
+    // the last sync to finish, or no location if there hasn't been one
+    private boolean mFinishedAll;
+    private String mFinishedLocation;
+    private long mFinishedAt;
+
+    public static SyncCoalescer getInstance() {
+        return sInstance;
+    }
+
+    SyncCoalescer() {
+    }
+
+    /**
+     * @return true if a sync should be asked for, false if one already asked for or running
+     * will do.
+     */
+    public boolean shouldRequest(Context context, boolean allLocations) {
+        String location = Utility.getPreferredLocation(context);
+        if (onRequest(location, allLocations, SystemClock.elapsedRealtime())) {
+            return true;
+        }
+        Log.d(LOG_TAG, "Sync request for " + (allLocations ? "all locations" : location)
+                + " merged into another");
+        return false;
+    }
+
+    synchronized boolean onRequest(String location, boolean allLocations, long now) {
+        if (mPending && (mPendingAll || !allLocations) && now - mPendingSince < WINDOW_MILLIS) {
+            return false;
+        }
+        if (mRunning && covers(mRunningAll, mRunningLocation, allLocations, location)) {
+            return false;
+        }
+        if (mFinishedLocation != null && now - mFinishedAt < WINDOW_MILLIS
+                && covers(mFinishedAll, mFinishedLocation, allLocations, location)) {
+            return false;
+        }
+        mPendingAll = allLocations || (mPending && mPendingAll);
+        mPending = true;
+        mPendingSince = now;
+        return true;
+    }
+
+    private static boolean covers(boolean syncAll, String syncLocation,
+                                  boolean requestAll, String requestLocation) {
+        return (syncAll || !requestAll) && syncLocation.equals(requestLocation);
+    }
+
+    /**
+     * Called by the sync adapter as a sync starts.
+     *
+     * @param location the preferred location when the sync started
+     */
+    synchronized void onSyncStarted(boolean allLocations, String location) {
+        if (mPending && (allLocations || !mPendingAll)) {
+            mPending = false;
+        }
+        mRunning = true;
+        mRunningAll = allLocations;
+        mRunningLocation = location;
+    }
+
+    /**
+     * Called by the sync adapter once a sync is done.
+     *
+     * @return true if a watch asked for the weather while it ran.
+     */
+    boolean onSyncFinished() {
+        return onSyncFinished(SystemClock.elapsedRealtime());
+    }
+
+    synchronized boolean onSyncFinished(long now) {
+        mRunning = false;
+        mFinishedAll = mRunningAll;
+        mFinishedLocation = mRunningLocation;
+        mFinishedAt = now;
+        boolean wearWaiting = mWearWaiting;
+        mWearWaiting = false;
+        return wearWaiting;
+    }
+
+    /**
+     * @return true if a sync is running and will send the weather to the watch when it's done,
+     * false if the caller should send it now.
+     */
+    public synchronized boolean attachWearRequest() {
+        if (mRunning) {
+            mWearWaiting = true;
+        }
+        return mRunning;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Where the sync opens its HTTP connections, so that they all get timeouts and all go back to
+ * the platform's keep-alive pool when they're done.  A sync of several locations, and the
+ * syncs after it, then talk to the server over the one connection instead of setting up a
+ * new one per request.
+ *
+ * HttpURLConnection already pools connections by host; what it needs is for every response to
+ * be read to the end and its stream closed, and for {@link HttpURLConnection#disconnect()}
+ * not to be called, since that closes the socket.  {@link #release} does that, and
+ * {@link #discard} is for connections that broke part way and can't be trusted with the next
+ * request.
+ */
+public class SyncHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // An error body longer than this isn't worth reading just to keep the connection
+    private static final int MAX_DRAINED_BYTES = 16 * 1024;
+
+    private static final SyncHttpClient sInstance =
+            new SyncHttpClient(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public static SyncHttpClient getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param connectTimeoutMillis how long to wait for a connection to the server
+     * @param readTimeoutMillis    how long to wait for each read of the response, which
+     *                             includes waiting for the server to start answering
+     */
+    public SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @return a GET to the url, not yet connected, to be handed back to {@link #release} or
+     * {@link #discard} once the caller is done with it.
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        connection.setRequestMethod("GET");
+        return connection;
+    }
+
+    /**
+     * Reads whatever is left of the response and closes it, which puts the connection back in
+     * the pool for the next request to the same server.
+     *
+     * @param body the stream the caller read the response from, or null if it didn't read it,
+     *             as for a 304 or an error status
+     */
+    public void release(HttpURLConnection connection, InputStream body) {
+        try {
+            if (body == null) {
+                body = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getErrorStream() : connection.getInputStream();
+            }
+            if (body == null) {
+                // no body at all, so nothing stands between the connection and the pool
+                return;
+            }
+            if (!drain(body)) {
+                discard(connection, body);
+                return;
+            }
+            body.close();
+        } catch (IOException e) {
+            // in no state to be reused
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Closes a connection that failed part way through, a timeout or a dropped connection,
+     * rather than letting the next request find it half read.
+     *
+     * @param body the stream being read from when it failed, or null
+     */
+    public void discard(HttpURLConnection connection, InputStream body) {
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // it's being thrown away anyway
+            }
+        }
+        connection.disconnect();
+    }
+
+    /**
+     * @return true if the stream reached its end without reading more than
+     * {@link #MAX_DRAINED_BYTES}.
+     */
+    private static boolean drain(InputStream in) throws IOException {
+        // Usually already at the end, so no buffer until there turns out to be something left
+        if (in.read() == -1) {
+            return true;
+        }
+        byte[] skipped = new byte[1024];
+        int drained = 1;
+        int count;
+        while ((count = in.read(skipped)) != -1) {
+            drained += count;
+            if (drained > MAX_DRAINED_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.IntDef;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where the sync adapter's time goes, kept in memory for the life of the process.
+ *
+ * Every stage of a sync records its latency into a histogram of power-of-two millisecond
+ * buckets, and every location synced records its outcome, the bytes downloaded for it and
+ * the rows written for it.  {@link com.example.android.sunshine.app.data.WeatherProvider}
+ * serves them at {@link MetricsEntry#CONTENT_URI} and {@link MetricsEntry#LOCATIONS_URI},
+ * and {@link SunshineSyncService} prints them for
+ * {@code adb shell dumpsys activity service .sync.SunshineSyncService}.
+ *
+ * Safe to use from several threads at once.
+ */
+public class SyncMetrics {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_SYNC, STAGE_CONNECT, STAGE_DOWNLOAD, STAGE_PARSE, STAGE_ADD_LOCATION,
+            STAGE_BULK_INSERT, STAGE_DELETE_OLD, STAGE_NOTIFY_WIDGETS, STAGE_NOTIFY_MUZEI,
+            STAGE_NOTIFY_NOTIFICATION, STAGE_NOTIFY_WEAR})
+    public @interface Stage {}
+
+    // The whole of onPerformSync
+    public static final int STAGE_SYNC = 0;
+    // Opening the connection: DNS, TCP and the request going out
+    public static final int STAGE_CONNECT = 1;
+    // From the request being sent to the last byte of the body
+    public static final int STAGE_DOWNLOAD = 2;
+    public static final int STAGE_PARSE = 3;
+    public static final int STAGE_ADD_LOCATION = 4;
+    public static final int STAGE_BULK_INSERT = 5;
+    public static final int STAGE_DELETE_OLD = 6;
+    public static final int STAGE_NOTIFY_WIDGETS = 7;
+    public static final int STAGE_NOTIFY_MUZEI = 8;
+    public static final int STAGE_NOTIFY_NOTIFICATION = 9;
+    public static final int STAGE_NOTIFY_WEAR = 10;
+    private static final int STAGE_COUNT = 11;
+
+    // Indexed by stage; these are also the names the provider reports
+    private static final String[] STAGE_NAMES = {
+            "sync",
+            "connect",
+            "download",
+            "parse",
+            "add_location",
+            "bulk_insert",
+            "delete_old",
+            "notify_widgets",
+            "notify_muzei",
+            "notify_notification",
+            "notify_wear"
+    };
+
+    // Bucket i holds the latencies under 2^i ms; the last one holds everything slower
+    private static final int BUCKET_COUNT = 18;
+
+    // Past this many locations the oldest is forgotten
+    private static final int MAX_LOCATIONS = 64;
+
+    private static final SyncMetrics sInstance = new SyncMetrics();
+
+    private final Histogram[] mStages = new Histogram[STAGE_COUNT];
+    private final Map<String, LocationStats> mLocations =
+            new LinkedHashMap<String, LocationStats>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LocationStats> eldest) {
+                    return size() > MAX_LOCATIONS;
+                }
+            };
+    private long mBytes;
+    private long mRows;
+
+    // The last schedule AdaptiveSyncScheduler chose
+    private int mSyncInterval;
+    private int mFlexTime;
+    private int mChangedDays;
+    private int mStableSyncs;
+    private String mScheduleReasons = "";
+    private long mScheduleChosenAt;
+
+    SyncMetrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i] = new Histogram();
+        }
+    }
+
+    public static SyncMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Adds one measurement of a stage.
+     *
+     * @param startNanos when the stage started, by System.nanoTime()
+     */
+    public void recordStage(@Stage int stage, long startNanos) {
+        recordStageNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void recordStageNanos(@Stage int stage, long nanos) {
+        mStages[stage].add(nanos);
+    }
+
+    /**
+     * Records how syncing one location went.
+     *
+     * @param status the location status it ended with
+     * @param bytes the bytes downloaded for it, 0 if nothing was
+     * @param rows the weather rows written for it
+     */
+    public synchronized void recordLocation(String locationSetting,
+                                            @SunshineSyncAdapter.LocationStatus int status,
+                                            long bytes, int rows) {
+        LocationStats stats = mLocations.get(locationSetting);
+        if (stats == null) {
+            stats = new LocationStats();
+            mLocations.put(locationSetting, stats);
+        }
+        stats.syncs++;
+        if (status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            stats.failures++;
+        }
+        stats.lastStatus = status;
+        stats.lastSync = System.currentTimeMillis();
+        stats.bytes += bytes;
+        stats.rows += rows;
+        mBytes += bytes;
+        mRows += rows;
+    }
+
+    /**
+     * Records the periodic sync schedule just chosen.
+     *
+     * @param syncInterval the interval, in seconds
+     * @param flexTime the flex time, in seconds
+     * @param changedDays how many of the next few days the last sync changed
+     * @param stableSyncs how many syncs in a row changed nothing
+     * @param reasons what moved the interval away from the default, separated by spaces
+     */
+    public synchronized void recordSchedule(int syncInterval, int flexTime, int changedDays,
+                                            int stableSyncs, String reasons) {
+        mSyncInterval = syncInterval;
+        mFlexTime = flexTime;
+        mChangedDays = changedDays;
+        mStableSyncs = stableSyncs;
+        mScheduleReasons = reasons;
+        mScheduleChosenAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the rows of {@link MetricsEntry#CONTENT_URI}: one per stage, in stage order.
+     */
+    public synchronized Cursor queryStages(String[] projection) {
+        String[] columns = projection != null ? projection : MetricsEntry.STAGE_COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, STAGE_COUNT);
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            Histogram histogram = mStages[stage];
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = stageColumn(columns[i], stage, histogram);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private Object stageColumn(String column, int stage, Histogram histogram) {
+        if (MetricsEntry._ID.equals(column)) {
+            return stage;
+        } else if (MetricsEntry.COLUMN_STAGE.equals(column)) {
+            return STAGE_NAMES[stage];
+        } else if (MetricsEntry.COLUMN_COUNT.equals(column)) {
+            return histogram.count;
+        } else if (MetricsEntry.COLUMN_TOTAL_MILLIS.equals(column)) {
+            return histogram.totalNanos / 1000000;
+        } else if (MetricsEntry.COLUMN_MAX_MILLIS.equals(column)) {
+            return histogram.maxNanos / 1000000;
+        } else if (MetricsEntry.COLUMN_P50_MILLIS.equals(column)) {
+            return histogram.percentileMillis(50);
+        } else if (MetricsEntry.COLUMN_P90_MILLIS.equals(column)) {
+            return histogram.percentileMillis(90);
+        } else if (MetricsEntry.COLUMN_P99_MILLIS.equals(column)) {
+            return histogram.percentileMillis(99);
+        } else if (MetricsEntry.COLUMN_BUCKETS.equals(column)) {
+            return histogram.bucketsString();
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    /**
+     * @return the rows of {@link MetricsEntry#LOCATIONS_URI}: one per location synced, the
+     *     most recently synced last.
+     */
+    public synchronized Cursor queryLocations(String[] projection) {
+        String[] columns = projection != null ? projection : MetricsEntry.LOCATION_COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, mLocations.size());
+        long id = 0;
+        for (Map.Entry<String, LocationStats> entry : mLocations.entrySet()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = locationColumn(columns[i], id, entry.getKey(), entry.getValue());
+            }
+            cursor.addRow(row);
+            id++;
+        }
+        return cursor;
+    }
+
+    private Object locationColumn(String column, long id, String locationSetting,
+                                  LocationStats stats) {
+        if (MetricsEntry._ID.equals(column)) {
+            return id;
+        } else if (MetricsEntry.COLUMN_LOCATION_SETTING.equals(column)) {
+            return locationSetting;
+        } else if (MetricsEntry.COLUMN_SYNCS.equals(column)) {
+            return stats.syncs;
+        } else if (MetricsEntry.COLUMN_FAILURES.equals(column)) {
+            return stats.failures;
+        } else if (MetricsEntry.COLUMN_LAST_STATUS.equals(column)) {
+            return stats.lastStatus;
+        } else if (MetricsEntry.COLUMN_LAST_SYNC.equals(column)) {
+            return stats.lastSync;
+        } else if (MetricsEntry.COLUMN_BYTES.equals(column)) {
+            return stats.bytes;
+        } else if (MetricsEntry.COLUMN_ROWS.equals(column)) {
+            return stats.rows;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    /**
+     * @return the single row of {@link MetricsEntry#SCHEDULE_URI}.
+     */
+    public synchronized Cursor querySchedule(String[] projection) {
+        String[] columns = projection != null ? projection : MetricsEntry.SCHEDULE_COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = scheduleColumn(columns[i]);
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private Object scheduleColumn(String column) {
+        if (MetricsEntry._ID.equals(column)) {
+            return 0;
+        } else if (MetricsEntry.COLUMN_SYNC_INTERVAL.equals(column)) {
+            return mSyncInterval;
+        } else if (MetricsEntry.COLUMN_FLEX_TIME.equals(column)) {
+            return mFlexTime;
+        } else if (MetricsEntry.COLUMN_CHANGED_DAYS.equals(column)) {
+            return mChangedDays;
+        } else if (MetricsEntry.COLUMN_STABLE_SYNCS.equals(column)) {
+            return mStableSyncs;
+        } else if (MetricsEntry.COLUMN_REASONS.equals(column)) {
+            return mScheduleReasons;
+        } else if (MetricsEntry.COLUMN_CHOSEN_AT.equals(column)) {
+            return mScheduleChosenAt;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Sync metrics (ms)");
+        writer.println(String.format("  %-20s %7s %9s %7s %7s %7s %7s",
+                "stage", "count", "total", "p50", "p90", "p99", "max"));
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            Histogram histogram = mStages[stage];
+            writer.println(String.format("  %-20s %7d %9d %7d %7d %7d %7d",
+                    STAGE_NAMES[stage], histogram.count, histogram.totalNanos / 1000000,
+                    histogram.percentileMillis(50), histogram.percentileMillis(90),
+                    histogram.percentileMillis(99), histogram.maxNanos / 1000000));
+            if (histogram.count > 0) {
+                writer.println("    buckets: " + histogram.bucketsString());
+            }
+        }
+        writer.println("  downloaded " + mBytes + " bytes, wrote " + mRows + " rows");
+        writer.println("Locations");
+        for (Map.Entry<String, LocationStats> entry : mLocations.entrySet()) {
+            LocationStats stats = entry.getValue();
+            writer.println(String.format("  %s: %d syncs, %d failed, last status %d %s, "
+                            + "%d bytes, %d rows",
+                    entry.getKey(), stats.syncs, stats.failures, stats.lastStatus,
+                    DateUtils.getRelativeTimeSpanString(stats.lastSync), stats.bytes,
+                    stats.rows));
+        }
+        writer.println("Schedule");
+        if (mScheduleChosenAt == 0) {
+            writer.println("  not chosen yet");
+        } else {
+            writer.println(String.format("  every %ds, flex %ds, chosen %s: %d days changed, "
+                            + "%d stable syncs, reasons [%s]",
+                    mSyncInterval, mFlexTime,
+                    DateUtils.getRelativeTimeSpanString(mScheduleChosenAt), mChangedDays,
+                    mStableSyncs, mScheduleReasons));
+        }
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i] = new Histogram();
+        }
+        mLocations.clear();
+        mBytes = 0;
+        mRows = 0;
+        mSyncInterval = 0;
+        mFlexTime = 0;
+        mChangedDays = 0;
+        mStableSyncs = 0;
+        mScheduleReasons = "";
+        mScheduleChosenAt = 0;
+    }
+
+    private static class Histogram {
+        final int[] buckets = new int[BUCKET_COUNT];
+        int count;
+        long totalNanos;
+        long maxNanos;
+
+        void add(long nanos) {
+            long millis = nanos / 1000000;
+            // the number of bits in millis is the index of the first bound above it
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKET_COUNT - 1);
+            buckets[bucket]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /**
+         * @return the upper bound of the bucket the percentile falls in, but no more than the
+         *     slowest measurement.
+         */
+        long percentileMillis(int percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = ((long) count * percentile + 99) / 100;
+            int seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxNanos / 1000000);
+                }
+            }
+            return maxNanos / 1000000;
+        }
+
+        /**
+         * @return the non-empty buckets, as "<upper bound in ms>:<count>" separated by spaces.
+         */
+        String bucketsString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (buckets[i] == 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(i == BUCKET_COUNT - 1 ? "inf" : Long.toString(1L << i))
+                        .append(':').append(buckets[i]);
+            }
+            return builder.toString();
+        }
+    }
+
+    private static class LocationStats {
+        int syncs;
+        int failures;
+        int lastStatus;
+        long lastSync;
+        long bytes;
+        long rows;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.DateUtils;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * Decides when to try again after a sync fails in a way that may clear up by itself: a
+ * dropped connection, a timeout, a 5xx.  Each failure in a row doubles the wait, from
+ * {@link #BASE_DELAY_MILLIS} up to {@link #MAX_DELAY_MILLIS}, and the wait actually used is
+ * drawn at random from the upper half of that, so that devices which failed together don't
+ * all come back together.
+ *
+ * The backoff is kept in the {@link SyncStateStore}, so it survives the process and is
+ * written along with the rest of the sync's state.
+ */
+public class SyncRetryPolicy {
+
+    public static final long BASE_DELAY_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
+    public static final long MAX_DELAY_MILLIS = 30 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final SyncStateStore mStore;
+    private final Random mRandom;
+
+    public SyncRetryPolicy(SyncStateStore store) {
+        this(store, new Random());
+    }
+
+    SyncRetryPolicy(SyncStateStore store, Random random) {
+        mStore = store;
+        mRandom = random;
+    }
+
+    /**
+     * @return true if a request that failed with the given HTTP status is worth repeating.
+     * Anything else, like a location the server doesn't know or a key it refuses, will get
+     * the same answer next time.
+     */
+    public static boolean isRetryable(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || responseCode == HTTP_TOO_MANY_REQUESTS
+                || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    /**
+     * @param attempt how many syncs in a row have failed, starting at 1
+     */
+    long getDelayMillis(int attempt) {
+        long ceiling = MAX_DELAY_MILLIS;
+        // past this the shift overflows, and the cap has long been reached anyway
+        if (attempt <= 16) {
+            ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (attempt - 1));
+        }
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * @return when the sync may next go to the network, or 0 if it may go now.
+     */
+    public long getRetryAt(long nowMillis) {
+        long retryAt = mStore.getRetryAt();
+        // a wait longer than the cap means the clock was set back since; don't honour it
+        if (retryAt <= nowMillis || retryAt - nowMillis > MAX_DELAY_MILLIS) {
+            return 0;
+        }
+        return retryAt;
+    }
+
+    /**
+     * Backs off a step further.
+     *
+     * @return when the sync should be tried again
+     */
+    public long onFailure(long nowMillis) {
+        int attempt = mStore.getRetryAttempt() + 1;
+        long retryAt = nowMillis + getDelayMillis(attempt);
+        mStore.setRetry(attempt, retryAt);
+        return retryAt;
+    }
+
+    /**
+     * Forgets the backoff.
+     *
+     * @return true if there was one to forget
+     */
+    public boolean onSuccess() {
+        if (mStore.getRetryAttempt() == 0) {
+            return false;
+        }
+        mStore.setRetry(0, 0);
+        return true;
+    }
+}
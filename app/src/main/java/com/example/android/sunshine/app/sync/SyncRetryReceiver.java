@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Asks for a sync once the backoff after a failed one is over.  The SyncManager retries a
+ * failed one-off sync by itself, but not a failed periodic one, which would otherwise leave
+ * the forecast stale until the next period.
+ */
+public class SyncRetryReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Not a manual sync: a retry should still respect the user's auto-sync setting
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(context),
+                context.getString(R.string.content_authority), extras);
+    }
+
+    static void schedule(Context context, long retryAtMillis) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // RTC rather than RTC_WAKEUP: a retry isn't worth waking the device for
+        alarmManager.set(AlarmManager.RTC, retryAtMillis, getRetryIntent(context));
+    }
+
+    static void cancel(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(getRetryIntent(context));
+    }
+
+    private static PendingIntent getRetryIntent(Context context) {
+        Intent intent = new Intent(context, SyncRetryReceiver.class);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the sync adapter remembers between syncs: the location status, when the last
+ * notification went out, how far it has backed off after failing, the periodic sync schedule,
+ * and the per-location HTTP validators.
+ *
+ * Writes are held in memory until {@link #apply()}, which hands all of them to
+ * SharedPreferences in a single {@link SharedPreferences.Editor#apply()} at the end of the
+ * sync, so the sync thread never waits on the disk.  Reads through the store see the pending
+ * writes.  Everyone else reads the default SharedPreferences as before and sees the whole
+ * sync's state change at once, when it is applied; listeners on the location status still
+ * hear about it as they did.
+ *
+ * Safe to use from several threads at once.
+ */
+public class SyncStateStore {
+
+    // Marks a pending removal
+    private static final Object REMOVED = new Object();
+
+    private static final String RETRY_ATTEMPT_KEY = "sync_retry_attempt";
+    private static final String RETRY_AT_KEY = "sync_retry_at";
+    private static final String SYNC_INTERVAL_KEY = "sync_interval";
+    private static final String STABLE_SYNCS_KEY = "sync_stable_syncs";
+
+    private final SharedPreferences mPrefs;
+    private final String mLocationStatusKey;
+    private final String mLastNotificationKey;
+
+    // key -> the value to write, or REMOVED
+    private final Map<String, Object> mPending = new HashMap<String, Object>();
+
+    public SyncStateStore(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+        mLastNotificationKey = context.getString(R.string.pref_last_notification);
+    }
+
+    @SuppressWarnings("ResourceType")
+    public @SunshineSyncAdapter.LocationStatus int getLocationStatus() {
+        return getInt(mLocationStatusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    public void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus) {
+        put(mLocationStatusKey, locationStatus);
+    }
+
+    /**
+     * @return when the last weather notification was shown, or 0 if there hasn't been one.
+     */
+    public long getLastNotification() {
+        return getLong(mLastNotificationKey, 0);
+    }
+
+    public void setLastNotification(long timeInMillis) {
+        put(mLastNotificationKey, timeInMillis);
+    }
+
+    /**
+     * @return how many syncs in a row have failed with an error worth retrying.
+     */
+    public int getRetryAttempt() {
+        return getInt(RETRY_ATTEMPT_KEY, 0);
+    }
+
+    /**
+     * @return when the sync may next go to the network, or 0 if it needn't wait.
+     */
+    public long getRetryAt() {
+        return getLong(RETRY_AT_KEY, 0);
+    }
+
+    public void setRetry(int attempt, long retryAtMillis) {
+        put(RETRY_ATTEMPT_KEY, attempt);
+        put(RETRY_AT_KEY, retryAtMillis);
+    }
+
+    /**
+     * @return the periodic sync interval last configured, in seconds, or 0 if it is still the
+     * one set up with the account.
+     */
+    public int getSyncInterval() {
+        return getInt(SYNC_INTERVAL_KEY, 0);
+    }
+
+    public void setSyncInterval(int seconds) {
+        put(SYNC_INTERVAL_KEY, seconds);
+    }
+
+    /**
+     * @return how many syncs in a row left the forecast as it was.
+     */
+    public int getStableSyncs() {
+        return getInt(STABLE_SYNCS_KEY, 0);
+    }
+
+    public void setStableSyncs(int stableSyncs) {
+        put(STABLE_SYNCS_KEY, stableSyncs);
+    }
+
+    private int getInt(String key, int defaultValue) {
+        synchronized (mPending) {
+            Object pending = mPending.get(key);
+            if (pending instanceof Integer) {
+                return (Integer) pending;
+            }
+            return mPrefs.getInt(key, defaultValue);
+        }
+    }
+
+    private long getLong(String key, long defaultValue) {
+        synchronized (mPending) {
+            Object pending = mPending.get(key);
+            if (pending instanceof Long) {
+                return (Long) pending;
+            }
+            return mPrefs.getLong(key, defaultValue);
+        }
+    }
+
+    String getString(String key) {
+        synchronized (mPending) {
+            Object pending = mPending.get(key);
+            if (pending == REMOVED) {
+                return null;
+            } else if (pending != null) {
+                return (String) pending;
+            }
+            return mPrefs.getString(key, null);
+        }
+    }
+
+    void putString(String key, String value) {
+        put(key, value == null ? REMOVED : value);
+    }
+
+    void remove(String key) {
+        put(key, REMOVED);
+    }
+
+    private void put(String key, Object value) {
+        synchronized (mPending) {
+            mPending.put(key, value);
+        }
+    }
+
+    /**
+     * Writes everything set since the last call, in one asynchronous write.
+     *
+     * @return true if there was anything to write.
+     */
+    public boolean apply() {
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                return false;
+            }
+            SharedPreferences.Editor editor = mPrefs.edit();
+            for (Map.Entry<String, Object> entry : mPending.entrySet()) {
+                Object value = entry.getValue();
+                if (value == REMOVED) {
+                    editor.remove(entry.getKey());
+                } else if (value instanceof Integer) {
+                    editor.putInt(entry.getKey(), (Integer) value);
+                } else if (value instanceof Long) {
+                    editor.putLong(entry.getKey(), (Long) value);
+                } else {
+                    editor.putString(entry.getKey(), (String) value);
+                }
+            }
+            // apply() updates what readers see before it returns, so the pending values can go
+            editor.apply();
+            mPending.clear();
+            return true;
+        }
+    }
+}
@@ -40,8 +40,11 @@ public class WearGoogleClientHandler implements GoogleApiClient.OnConnectionFail
     }
 
     public void sendData(PutDataMapRequest putDataMapRequest){
+        sendData(putDataMapRequest.asPutDataRequest());
+    }
+
+    public void sendData(PutDataRequest putDataRequest){
         if(mGoogleApiClient.isConnected()){
-            PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
             putDataRequest.setUrgent();
             Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest);
         }
@@ -2,44 +2,78 @@ package com.example.android.sunshine.app.wearcallback;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
+import android.text.format.Time;
 
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.PutDataMapRequest;
-
-import java.util.Date;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.shared.WearForecastRecord;
+import com.google.android.gms.wearable.PutDataRequest;
 
 public class WearUtility {
-    public static final String KEY_WEATHER_ID = "weather_id";
-    public static final String KEY_HIGH_TEMPERATURE = "high_temp";
-    public static final String KEY_LOW_TEMPERATURE = "low_temp";
-    public static final String KEY_TIMESTAMP = "timestamp";
-
-    public static void prepareWeatherDataForWear(Context context, PutDataMapRequest putDataMapRequest){
-        final String[] WEAR_NOTIFY_WEATHER_PROJECTION = new String[] {
-                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-        };
-        final int WEATHER_ID_POS = 0;
-        final int WEATHER_ID_MAX_TEMP = 1;
-        final int WEATHER_ID_MIN_TEMP = 2;
-
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = context.getContentResolver().query(weatherUri, WEAR_NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        if(cursor != null){
-            if(cursor.moveToFirst()){
-                DataMap dataMap = putDataMapRequest.getDataMap();
-                dataMap.putInt(KEY_WEATHER_ID, cursor.getInt(WEATHER_ID_POS));
-                dataMap.putString(KEY_HIGH_TEMPERATURE, Utility.formatTemperature(context, cursor.getDouble(WEATHER_ID_MAX_TEMP)));
-                dataMap.putString(KEY_LOW_TEMPERATURE, Utility.formatTemperature(context, cursor.getDouble(WEATHER_ID_MIN_TEMP)));
-                dataMap.putLong(KEY_TIMESTAMP, new Date().getTime());
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+
+    /**
+     * @return a request carrying the preferred location's forecast from today on as a
+     * {@link WearForecastRecord}, so that the watch can move on to the next day by itself, or
+     * null if there is no weather for today to send.
+     */
+    public static PutDataRequest prepareWeatherDataForWear(Context context){
+        String locationSetting = Utility.getPreferredLocation(context);
+        long now = System.currentTimeMillis();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, now),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if(cursor == null){
+            return null;
+        }
+
+        boolean metric = Utility.isMetric(context);
+        Time time = new Time();
+        time.setToNow();
+        int today = Time.getJulianDay(now, time.gmtoff);
+
+        WearForecastRecord record = new WearForecastRecord();
+        record.flags = metric ? WearForecastRecord.FLAG_METRIC : 0;
+        record.firstJulianDay = today;
+        record.createdAtSeconds = now / 1000;
+        try {
+            while(cursor.moveToNext()){
+                // the record's days follow on from each other, so a missing day ends it
+                int julianDay = Time.getJulianDay(cursor.getLong(INDEX_DATE), time.gmtoff);
+                if(julianDay != today + record.dayCount){
+                    break;
+                }
+                if(!record.addDay(cursor.getInt(INDEX_WEATHER_ID),
+                        toDegrees(cursor.getDouble(INDEX_MAX_TEMP), metric),
+                        toDegrees(cursor.getDouble(INDEX_MIN_TEMP), metric))){
+                    break;
+                }
             }
+        } finally {
             cursor.close();
         }
+        if(record.dayCount == 0){
+            return null;
+        }
+        return PutDataRequest.create(WearForecastRecord.PATH).setData(record.encode());
+    }
+
+    /**
+     * @return the temperature in whole degrees of the units the user picked, as
+     * Utility.formatTemperature would show it.
+     */
+    static int toDegrees(double celsius, boolean metric){
+        return (int) Math.round(metric ? celsius : celsius * 1.8 + 32);
     }
 }
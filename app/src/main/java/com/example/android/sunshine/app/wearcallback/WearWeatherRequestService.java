@@ -2,9 +2,10 @@ package com.example.android.sunshine.app.wearcallback;
 
 import android.util.Log;
 
+import com.example.android.sunshine.app.sync.SyncCoalescer;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.WearableListenerService;
 
 public class WearWeatherRequestService extends WearableListenerService {
@@ -33,14 +34,14 @@ public class WearWeatherRequestService extends WearableListenerService {
             if(dataEvent.getType() == DataEvent.TYPE_CHANGED){
                 if(requestWeatherSyncPath.equals(dataEvent.getDataItem().getUri().getPath())){
                     Log.e("rohit_app", "weather has been requested from wearable");
+                    if (SyncCoalescer.getInstance().attachWearRequest()) {
+                        // the sync under way sends the fresh weather once it's done
+                        continue;
+                    }
 
-                    PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather_update");
-                    WearUtility.prepareWeatherDataForWear(this, putDataMapRequest);
-                    if(putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_WEATHER_ID) &&
-                            putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_HIGH_TEMPERATURE) &&
-                            putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_LOW_TEMPERATURE) &&
-                            putDataMapRequest.getDataMap().containsKey(WearUtility.KEY_TIMESTAMP)){
-                        mWearGoogleClientHandler.sendData(putDataMapRequest);
+                    PutDataRequest putDataRequest = WearUtility.prepareWeatherDataForWear(this);
+                    if(putDataRequest != null){
+                        mWearGoogleClientHandler.sendData(putDataRequest);
                     }
                 }
             }
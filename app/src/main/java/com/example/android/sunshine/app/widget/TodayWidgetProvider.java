@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -34,12 +35,16 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // with no update period, this is the widget being placed or the home screen starting
+        AdaptiveSyncScheduler.noteAppUsed(context);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
+        // resized by hand
+        AdaptiveSyncScheduler.noteAppUsed(context);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
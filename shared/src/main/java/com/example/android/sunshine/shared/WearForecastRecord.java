@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * The forecast as the phone sends it to the watch: one small versioned binary record in a
+ * single byte array, rather than a DataMap of strings, so that the watch decodes it with a
+ * few array reads and no key lookups.
+ *
+ * The phone app and the watch app both build this one class, but they are updated apart, so
+ * a watch can be sent a record from a newer phone app.  A newer version may only add bytes to
+ * the end of each day, and says so in the bytes per day, so that an older one can still read
+ * it.  Big-endian, fixed width:
+ * <pre>
+ *   0  byte   version, {@link #VERSION}
+ *   1  byte   flags: {@link #FLAG_METRIC} if the temperatures are Celsius, else Fahrenheit
+ *   2  byte   number of days
+ *   3  byte   bytes per day, so that a later version can add to a day and still be read
+ *   4  int    the Julian day of the first day
+ *   8  int    when the phone made the record, in seconds since the epoch, unsigned so
+ *              that it lasts until 2106
+ *  12  short  the first day's high, in whole degrees
+ *  14  short  the first day's low
+ *  16  per day:
+ *        short  weather condition id
+ *        byte   high, as a change from the day before; the first day's is 0
+ *        byte   low, likewise
+ * </pre>
+ */
+public final class WearForecastRecord {
+
+    // The data item the record is sent as, with the record as its data and nothing else
+    public static final String PATH = "/weather_forecast";
+
+    public static final int VERSION = 1;
+    public static final int FLAG_METRIC = 1;
+    // OpenWeatherMap's longest forecast
+    public static final int MAX_DAYS = 16;
+
+    public static final int HEADER_LENGTH = 16;
+    public static final int DAY_LENGTH = 4;
+
+    public int flags;
+    public int dayCount;
+    public int firstJulianDay;
+    public long createdAtSeconds;
+    public final int[] weatherId = new int[MAX_DAYS];
+    // in whole degrees, of whichever unit the flags say
+    public final int[] high = new int[MAX_DAYS];
+    public final int[] low = new int[MAX_DAYS];
+
+    public boolean isMetric() {
+        return (flags & FLAG_METRIC) != 0;
+    }
+
+    /**
+     * Appends a day after the ones already in the record.
+     *
+     * @return false if the record is already full
+     */
+    public boolean addDay(int weatherId, int high, int low) {
+        if (dayCount == MAX_DAYS) {
+            return false;
+        }
+        this.weatherId[dayCount] = weatherId;
+        this.high[dayCount] = high;
+        this.low[dayCount] = low;
+        dayCount++;
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a temperature changed by more than a byte can hold
+     * from one day to the next, which no real forecast does
+     */
+    public byte[] encode() {
+        byte[] record = new byte[HEADER_LENGTH + dayCount * DAY_LENGTH];
+        record[0] = (byte) VERSION;
+        record[1] = (byte) flags;
+        record[2] = (byte) dayCount;
+        record[3] = (byte) DAY_LENGTH;
+        putInt(record, 4, firstJulianDay);
+        putInt(record, 8, (int) createdAtSeconds);
+        int previousHigh = dayCount > 0 ? high[0] : 0;
+        int previousLow = dayCount > 0 ? low[0] : 0;
+        putShort(record, 12, previousHigh);
+        putShort(record, 14, previousLow);
+
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < dayCount; i++) {
+            putShort(record, offset, weatherId[i]);
+            record[offset + 2] = toDelta(high[i] - previousHigh);
+            record[offset + 3] = toDelta(low[i] - previousLow);
+            previousHigh = high[i];
+            previousLow = low[i];
+            offset += DAY_LENGTH;
+        }
+        return record;
+    }
+
+    /**
+     * Reads a record into this one, replacing what it held.  Days beyond {@link #MAX_DAYS}
+     * are dropped, and so is whatever a newer version added to each day.
+     *
+     * @return false, leaving this record as it was, if the bytes aren't a record this version
+     * can read
+     */
+    public boolean decode(byte[] record) {
+        if (record == null || record.length < HEADER_LENGTH || (record[0] & 0xff) < 1) {
+            return false;
+        }
+        int count = record[2] & 0xff;
+        int dayLength = record[3] & 0xff;
+        if (dayLength < DAY_LENGTH || record.length < HEADER_LENGTH + count * dayLength) {
+            return false;
+        }
+
+        flags = record[1] & 0xff;
+        dayCount = Math.min(count, MAX_DAYS);
+        firstJulianDay = getInt(record, 4);
+        createdAtSeconds = getInt(record, 8) & 0xffffffffL;
+        int previousHigh = getShort(record, 12);
+        int previousLow = getShort(record, 14);
+
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < dayCount; i++) {
+            weatherId[i] = getShort(record, offset);
+            high[i] = previousHigh + record[offset + 2];
+            low[i] = previousLow + record[offset + 3];
+            previousHigh = high[i];
+            previousLow = low[i];
+            offset += dayLength;
+        }
+        return true;
+    }
+
+    private static byte toDelta(int delta) {
+        if (delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Temperature changed by " + delta);
+        }
+        return (byte) delta;
+    }
+
+    private static void putInt(byte[] record, int offset, int value) {
+        record[offset] = (byte) (value >> 24);
+        record[offset + 1] = (byte) (value >> 16);
+        record[offset + 2] = (byte) (value >> 8);
+        record[offset + 3] = (byte) value;
+    }
+
+    private static void putShort(byte[] record, int offset, int value) {
+        record[offset] = (byte) (value >> 8);
+        record[offset + 1] = (byte) value;
+    }
+
+    private static int getInt(byte[] record, int offset) {
+        return (record[offset] << 24) | ((record[offset + 1] & 0xff) << 16)
+                | ((record[offset + 2] & 0xff) << 8) | (record[offset + 3] & 0xff);
+    }
+
+    // signed, so that temperatures below zero come back as they went
+    private static int getShort(byte[] record, int offset) {
+        return (short) ((record[offset] << 8) | (record[offset + 1] & 0xff));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.DateFormat;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+
+public class TestTimeText extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTimeText.class.getSimpleName();
+
+    private static final int FRAMES = 600;
+    private static final long FRAME_MILLIS = 500;
+
+    private Calendar mCalendar;
+    private Paint mTimePaint;
+    private Paint mDayPaint;
+    private TimeText mTimeText;
+    private Canvas mCanvas;
+    private Bitmap mBitmap;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCalendar = Calendar.getInstance();
+        mTimePaint = createPaint(30);
+        mDayPaint = createPaint(20);
+        mTimeText = new TimeText(mContext, mCalendar, mTimePaint, mDayPaint);
+        mBitmap = Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    private static Paint createPaint(float textSize) {
+        Paint paint = new Paint();
+        paint.setTypeface(Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL));
+        paint.setAntiAlias(true);
+        paint.setTextSize(textSize);
+        return paint;
+    }
+
+    private void setTime(int hour, int minute, int second) {
+        mCalendar.set(2015, Calendar.JUNE, 1, hour, minute, second);
+        // computes the fields now rather than in the middle of a draw
+        mCalendar.get(Calendar.SECOND);
+    }
+
+    private String formatTime(boolean withSeconds) {
+        return new String(mTimeText.getTimeBuffer(), 0, mTimeText.formatTime(withSeconds));
+    }
+
+    public void testFormatsLikeStringFormat() {
+        setTime(22, 9, 8);
+        assertEquals(String.format(Locale.getDefault(), "%d:%02d:%02d", 10, 9, 8),
+                formatTime(true));
+        assertEquals(String.format(Locale.getDefault(), "%d:%02d", 10, 9), formatTime(false));
+
+        // midnight and noon are 12 on a 12 hour clock
+        setTime(0, 5, 0);
+        assertEquals(String.format(Locale.getDefault(), "%d:%02d", 12, 5), formatTime(false));
+        setTime(12, 59, 59);
+        assertEquals(String.format(Locale.getDefault(), "%d:%02d:%02d", 12, 59, 59),
+                formatTime(true));
+    }
+
+    public void testWidthsMatchMeasureText() {
+        setTime(10, 47, 38);
+        int length = mTimeText.formatTime(true);
+        String time = formatTime(true);
+        assertEquals(mTimePaint.measureText(time), mTimeText.getWidth(0, length), 0.5f);
+
+        // measured again for a new text size
+        mTimePaint.setTextSize(45);
+        assertEquals(mTimePaint.measureText(time), mTimeText.getWidth(0, length), 0.5f);
+    }
+
+    public void testDayTextOnlyChangesWithTheDay() {
+        setTime(9, 0, 0);
+        String dayText = mTimeText.getDayText();
+        setTime(23, 59, 59);
+        assertSame(dayText, mTimeText.getDayText());
+
+        mCalendar.add(Calendar.SECOND, 1);
+        assertFalse(dayText.equals(mTimeText.getDayText()));
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testFramesDoNotAllocate() {
+        setTime(10, 0, 0);
+        long time = mCalendar.getTimeInMillis();
+        // warm up the day text and digit widths
+        mTimeText.draw(mCanvas, 20, 55, 80, true, true);
+
+        long drawNanos = 0;
+        Debug.resetThreadAllocCount();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            // setting the calendar is the watch face's business, not the text's
+            time += FRAME_MILLIS;
+            mCalendar.setTimeInMillis(time);
+            mCalendar.get(Calendar.SECOND);
+
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            mTimeText.draw(mCanvas, 20, 55, 80, true, frame % 2 == 0);
+            drawNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+        }
+        int allocations = Debug.getThreadAllocCount();
+
+        // the way onDraw used to make the same text
+        SimpleDateFormat dayOfWeekFormat = new SimpleDateFormat("EEE", Locale.getDefault());
+        java.text.DateFormat dateFormat = DateFormat.getDateFormat(mContext);
+        long oldNanos = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            time += FRAME_MILLIS;
+            mCalendar.setTimeInMillis(time);
+            mCalendar.get(Calendar.SECOND);
+
+            long start = System.nanoTime();
+            float x = 20;
+            int hour = mCalendar.get(Calendar.HOUR);
+            if (hour == 0) {
+                hour = 12;
+            }
+            String hourStr = hour + "";
+            mCanvas.drawText(hourStr, x, 55, mTimePaint);
+            x += mTimePaint.measureText(hourStr) + mTimePaint.measureText(":");
+            String minuteStr = String.format(Locale.getDefault(), "%02d",
+                    mCalendar.get(Calendar.MINUTE));
+            mCanvas.drawText(minuteStr, x, 55, mTimePaint);
+            x += mTimePaint.measureText(minuteStr) + mTimePaint.measureText(":");
+            String secondStr = String.format(Locale.getDefault(), "%02d",
+                    mCalendar.get(Calendar.SECOND));
+            mCanvas.drawText(secondStr, x, 55, mTimePaint);
+            mCanvas.drawText(dayOfWeekFormat.format(mCalendar.getTime()).toUpperCase() + ", "
+                    + dateFormat.format(mCalendar.getTime()), 20, 80, mDayPaint);
+            oldNanos += System.nanoTime() - start;
+        }
+
+        Log.i(LOG_TAG, String.format("%d frames: %.1f us per frame, %d allocations; "
+                        + "formatting each frame %.1f us",
+                FRAMES, drawNanos / 1000.0 / FRAMES, allocations, oldNanos / 1000.0 / FRAMES));
+        // the timings are only logged: too noisy on a shared device to fail on
+        assertEquals("Error: drawing the time allocated", 0, allocations);
+    }
+}
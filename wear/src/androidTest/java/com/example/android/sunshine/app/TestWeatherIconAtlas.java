@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class TestWeatherIconAtlas extends AndroidTestCase {
+
+    private static final int ICON_SIZE = 48;
+    // past every OpenWeatherMap condition code
+    private static final int MAX_WEATHER_ID = 1000;
+
+    public void testEveryWeatherIconIsInTheAtlas() {
+        for (int weatherId = 0; weatherId < MAX_WEATHER_ID; weatherId++) {
+            int icon = Utility.getIconResourceForWeatherCondition(weatherId);
+            if (icon != -1) {
+                assertTrue("Error: no atlas icon for weather " + weatherId,
+                        WeatherIconAtlas.indexOf(icon) >= 0);
+            }
+        }
+        assertEquals(-1, WeatherIconAtlas.indexOf(-1));
+    }
+
+    public void testLowBitAmbientIsOnlyWhiteOrClear() {
+        WeatherIconAtlas atlas = new WeatherIconAtlas(mContext.getResources(), ICON_SIZE, true);
+        try {
+            assertTrue(atlas.isLowBit());
+            Bitmap ambient = atlas.getAmbientBitmap();
+            int width = ambient.getWidth();
+            int height = ambient.getHeight();
+            int[] pixels = new int[width * height];
+            ambient.getPixels(pixels, 0, width, 0, 0, width, height);
+            int white = 0;
+            for (int i = 0; i < pixels.length; i++) {
+                if (pixels[i] == 0xffffffff) {
+                    white++;
+                } else if (pixels[i] != 0) {
+                    fail(String.format("Error: pixel %d,%d is %08x", i % width, i / width,
+                            pixels[i]));
+                }
+            }
+            // and the icons didn't all vanish on the way
+            assertTrue(white > 0);
+        } finally {
+            atlas.recycle();
+        }
+    }
+}
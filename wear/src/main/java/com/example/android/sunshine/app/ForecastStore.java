@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.shared.WearForecastRecord;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The last forecast the phone sent, kept on the watch as the record it came in, so that the
+ * watch face has the weather as soon as it starts and can move on to the next day at midnight
+ * without asking the phone.
+ */
+public class ForecastStore {
+
+    private static final String LOG_TAG = ForecastStore.class.getSimpleName();
+    private static final String FILE_NAME = "forecast.bin";
+
+    private final AtomicFile mFile;
+
+    public ForecastStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Reads the stored forecast into the record.  It is under a hundred bytes, so this is
+     * cheap enough for the main thread.
+     *
+     * @return false, leaving the record as it was, if there is no readable forecast stored
+     */
+    public boolean load(WearForecastRecord into) {
+        try {
+            return into.decode(mFile.readFully());
+        } catch (FileNotFoundException e) {
+            // nothing sent yet
+            return false;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't read the stored forecast", e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the stored forecast, off the calling thread, since the write is synced to
+     * flash.  Saves happen in the order they were asked for.
+     */
+    public void save(final byte[] record) {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    out = mFile.startWrite();
+                    out.write(record);
+                    mFile.finishWrite(out);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Couldn't store the forecast", e);
+                    if (out != null) {
+                        mFile.failWrite(out);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -21,8 +21,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -35,28 +33,25 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.DateFormat;
+import android.text.format.Time;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WearForecastRecord;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Locale;
 import java.util.TimeZone;
 
 public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
@@ -74,6 +69,12 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * The weather icon is never wider than this part of the face, so that a small watch still
+     * has room for the temperatures.
+     */
+    private static final float MAX_ICON_WIDTH_FRACTION = 0.2f;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -115,7 +116,7 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
-                initFormats();
+                mTimeText.initFormats();
                 invalidate();
             }
         };
@@ -126,16 +127,25 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
         float mWeatherTempOffset;
         float mTempLeftMargin;
 
-        SimpleDateFormat mDayOfWeekFormat;
-        java.text.DateFormat mDateFormat;
-        Date mDate;
+        TimeText mTimeText;
 
-        Bitmap mWeatherBitmap;
+        // built once the size of the face is known, and only again if it changes
+        WeatherIconAtlas mIconAtlas;
+        int mSurfaceWidth;
+        int mWeatherIconIndex = -1;
 
         private GoogleApiClient mGoogleApiClient;
 
-        private String mHighTenpStr = "20\u00B0";
-        private String mLowTempStr = "18\u00B0";
+        // the last forecast the phone sent, and the day of it on screen
+        private final WearForecastRecord mForecast = new WearForecastRecord();
+        private ForecastStore mForecastStore;
+        private int mShownJulianDay = -1;
+        // the day we last asked the phone for weather, so that we ask at most once a day
+        private int mRequestedJulianDay = -1;
+        private boolean mHasWeather;
+        private String mHighTenpStr = "";
+        private String mLowTempStr = "";
+        private float mHighTempWidth;
 
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
@@ -173,16 +183,20 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
             mMinTempTextPaint = createTextPaint(resources.getColor(R.color.text_secondary));
 
             mCalendar = Calendar.getInstance();
-            mDate = new Date();
-
-            mWeatherBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.ic_clear);
+            mTimeText = new TimeText(SunshineDigitalWatchFace.this, mCalendar, mTimeTextPaint,
+                    mDayTextPaint);
 
-            initFormats();
+            mForecastStore = new ForecastStore(SunshineDigitalWatchFace.this);
+            mForecastStore.load(mForecast);
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            if (mIconAtlas != null) {
+                mIconAtlas.recycle();
+                mIconAtlas = null;
+            }
 
             Wearable.DataApi.removeListener(mGoogleApiClient, this);
             if(mGoogleApiClient != null && mGoogleApiClient.isConnected()){
@@ -209,7 +223,7 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
 
                 // Update time zone in case it changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
-                initFormats();
+                mTimeText.initFormats();
                 invalidate();
             } else {
                 unregisterReceiver();
@@ -269,13 +283,49 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
                 mWeatherIconYOffset = resources.getDimension(R.dimen.weather_icon_top_margin);
                 mWeatherTempOffset = resources.getDimension(R.dimen.weather_temp_top_margin);
             }
+            // the temperatures' widths change with the text size
+            mShownJulianDay = -1;
+        }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            if (width != mSurfaceWidth || mIconAtlas == null) {
+                mSurfaceWidth = width;
+                createIconAtlas();
+            }
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
-            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            boolean lowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            if (lowBitAmbient != mLowBitAmbient) {
+                mLowBitAmbient = lowBitAmbient;
+                // the ambient icons depend on it
+                if (mIconAtlas != null) {
+                    createIconAtlas();
+                }
+            }
+        }
+
+        /**
+         * Decodes and scales every weather icon for the current face, so that drawing one
+         * never has to.
+         */
+        private void createIconAtlas() {
+            Resources resources = SunshineDigitalWatchFace.this.getResources();
+            int iconSize = Math.min(resources.getDimensionPixelSize(R.dimen.weather_icon_size),
+                    (int) (mSurfaceWidth * MAX_ICON_WIDTH_FRACTION));
+            if (mIconAtlas != null) {
+                if (mIconAtlas.getIconSize() == iconSize
+                        && mIconAtlas.isLowBit() == mLowBitAmbient) {
+                    return;
+                }
+                mIconAtlas.recycle();
+            }
+            mIconAtlas = new WeatherIconAtlas(resources, iconSize, mLowBitAmbient);
+            invalidate();
         }
 
         @Override
@@ -326,57 +376,41 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
 
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
-            mDate.setTime(now);
-
-            if(mAmbient){
-                canvas.drawText(String.format(Locale.getDefault(), "%d:%02d", mCalendar.get(Calendar.HOUR), mCalendar.get(Calendar.MINUTE)), mXOffset, mTimeYOffset, mTimeTextPaint);
-            }else{
-                final boolean shouldDrawColons = (System.currentTimeMillis() % 1000) < 500;
-                float timeX = mXOffset;
-                final String colon = ":";
-
-                int hour = mCalendar.get(Calendar.HOUR);
-                if(hour == 0){
-                    hour = 12;
-                }
-                String hourStr = hour + "";
-                canvas.drawText(hourStr, timeX, mTimeYOffset, mTimeTextPaint);
-                timeX += mTimeTextPaint.measureText(hourStr);
-
-                if(shouldDrawColons){
-                    canvas.drawText(colon, timeX, mTimeYOffset, mTimeTextPaint);
-                }
-                timeX += mTimeTextPaint.measureText(colon);
-
-                String minuteStr = String.format(Locale.getDefault(), "%02d", mCalendar.get(Calendar.MINUTE));
-                canvas.drawText(minuteStr, timeX, mTimeYOffset, mTimeTextPaint);
-                timeX += mTimeTextPaint.measureText(minuteStr);
-
-                if(shouldDrawColons){
-                    canvas.drawText(colon, timeX, mTimeYOffset, mTimeTextPaint);
-                }
-                timeX += mTimeTextPaint.measureText(colon);
 
-                String secondStr = String.format(Locale.getDefault(), "%02d", mCalendar.get(Calendar.SECOND));
-                canvas.drawText(secondStr, timeX, mTimeYOffset, mTimeTextPaint);
+            int julianDay = getJulianDay(now);
+            if(julianDay != mShownJulianDay){
+                // midnight, or a new forecast
+                showForecastDay(julianDay);
             }
 
-            String dayText = mDayOfWeekFormat.format(mDate).toUpperCase() + ", " + mDateFormat.format(mDate);
-            canvas.drawText(dayText, mXOffset, mDayYOffset, mDayTextPaint);
+            mTimeText.draw(canvas, mXOffset, mTimeYOffset, mDayYOffset, !mAmbient,
+                    (now % 1000) < 500);
 
+            if(!mHasWeather){
+                return;
+            }
             float x = mXOffset;
 
-            if(!mAmbient){
-                canvas.drawBitmap(mWeatherBitmap, x, mWeatherIconYOffset, new Paint());
-                x += mWeatherBitmap.getWidth() + mTempLeftMargin;
+            if(mWeatherIconIndex != -1 && mIconAtlas != null){
+                mIconAtlas.draw(canvas, mWeatherIconIndex, x, mWeatherIconYOffset, mAmbient);
+                x += mIconAtlas.getIconSize() + mTempLeftMargin;
             }
 
             canvas.drawText(mHighTenpStr, x, mWeatherTempOffset, mMaxTempTextPaint);
-            x += mMaxTempTextPaint.measureText(mHighTenpStr);
+            x += mHighTempWidth;
 
             canvas.drawText(mLowTempStr, x, mWeatherTempOffset, mMinTempTextPaint);
         }
 
+        /**
+         * @return the local Julian day, from the calendar already set to the time.
+         */
+        private int getJulianDay(long now) {
+            long offsetMillis = mCalendar.get(Calendar.ZONE_OFFSET)
+                    + mCalendar.get(Calendar.DST_OFFSET);
+            return Time.getJulianDay(now, offsetMillis / 1000);
+        }
+
         /**
          * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
          * or stops it if it shouldn't be running but currently is.
@@ -409,18 +443,24 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
             }
         }
 
-        private void initFormats(){
-            mDayOfWeekFormat = new SimpleDateFormat("EEE", Locale.getDefault());
-            mDayOfWeekFormat.setCalendar(mCalendar);
-
-            mDateFormat = DateFormat.getDateFormat(SunshineDigitalWatchFace.this);
-            mDateFormat.setCalendar(mCalendar);
-        }
-
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Wearable.DataApi.addListener(mGoogleApiClient, this);
 
+            // The phone pushes every new forecast; only ask if what we have doesn't reach today
+            long now = System.currentTimeMillis();
+            mCalendar.setTimeInMillis(now);
+            int today = getJulianDay(now);
+            if(!hasForecastDay(today)){
+                requestWeather(today);
+            }
+        }
+
+        private void requestWeather(int today) {
+            if(mRequestedJulianDay == today || !mGoogleApiClient.isConnected()){
+                return;
+            }
+            mRequestedJulianDay = today;
             PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/request_weather_sync");
             putDataMapRequest.getDataMap().putLong("time", new Date().getTime());
 
@@ -441,27 +481,45 @@ public class SunshineDigitalWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDataChanged(DataEventBuffer dataEventBuffer) {
-            final String weatherUpdatePath = "/weather_update";
-
             for(DataEvent dataEvent: dataEventBuffer){
                 if(dataEvent.getType() == DataEvent.TYPE_CHANGED){
-                    if(weatherUpdatePath.equals(dataEvent.getDataItem().getUri().getPath())){
+                    if(WearForecastRecord.PATH.equals(dataEvent.getDataItem().getUri().getPath())){
                         Log.e("rohit_wear", "weather update received from phone");
 
-                        DataMap dataMap = DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
-                        if(dataMap.containsKey("weather_id")){
-                            int resId = Utility.getIconResourceForWeatherCondition(dataMap.getInt("weather_id"));
-                            if(resId != -1){
-                                mWeatherBitmap = BitmapFactory.decodeResource(getResources(), resId);
-                            }
-                        }
-                        if(dataMap.containsKey("high_temp") && dataMap.containsKey("low_temp")){
-                            mHighTenpStr = dataMap.getString("high_temp");
-                            mLowTempStr = dataMap.getString("low_temp");
+                        // the item's data is the record itself
+                        byte[] record = dataEvent.getDataItem().getData();
+                        if(mForecast.decode(record)){
+                            mForecastStore.save(record);
+                            mShownJulianDay = -1;
+                            invalidate();
                         }
                     }
                 }
             }
         }
+
+        private boolean hasForecastDay(int julianDay){
+            int day = julianDay - mForecast.firstJulianDay;
+            return day >= 0 && day < mForecast.dayCount;
+        }
+
+        /**
+         * Puts the stored forecast's weather for the day on screen, or nothing if it has run
+         * out, in which case the phone is asked for more.
+         */
+        private void showForecastDay(int julianDay){
+            mShownJulianDay = julianDay;
+            mHasWeather = hasForecastDay(julianDay);
+            if(!mHasWeather){
+                requestWeather(julianDay);
+                return;
+            }
+            int day = julianDay - mForecast.firstJulianDay;
+            mWeatherIconIndex = WeatherIconAtlas.indexOf(
+                    Utility.getIconResourceForWeatherCondition(mForecast.weatherId[day]));
+            mHighTenpStr = mForecast.high[day] + "\u00B0";
+            mLowTempStr = mForecast.low[day] + "\u00B0";
+            mHighTempWidth = mMaxTempTextPaint.measureText(mHighTenpStr);
+        }
     }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.format.DateFormat;
+
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The time and date lines of the watch face.  The time is written digit by digit into a char
+ * buffer and placed with digit widths measured once per text size, and the date is only
+ * formatted again when the day changes, so that drawing a frame allocates nothing.
+ */
+public class TimeText {
+
+    private static final char COLON = ':';
+
+    private final Context mContext;
+    private final Calendar mCalendar;
+    private final Paint mTimePaint;
+    private final Paint mDayPaint;
+
+    // h:mm:ss at most
+    private final char[] mTime = new char[8];
+    private char mZeroDigit = '0';
+
+    // the time paint's digit and colon widths, and what it looked like when they were measured
+    private final float[] mDigitWidths = new float[10];
+    private float mColonWidth;
+    private float mMeasuredTextSize = -1;
+    private Typeface mMeasuredTypeface;
+    private final char[] mGlyph = new char[1];
+
+    private SimpleDateFormat mDayOfWeekFormat;
+    private java.text.DateFormat mDateFormat;
+    private final Date mDate = new Date();
+    private String mDayText;
+    private int mDayTextKey = -1;
+
+    /**
+     * @param calendar the watch face's calendar, which it sets to the time before each draw
+     */
+    public TimeText(Context context, Calendar calendar, Paint timePaint, Paint dayPaint) {
+        mContext = context;
+        mCalendar = calendar;
+        mTimePaint = timePaint;
+        mDayPaint = dayPaint;
+        initFormats();
+    }
+
+    /**
+     * Picks up the current locale and date format.  Call it again when the time zone or locale
+     * might have changed.
+     */
+    public void initFormats() {
+        Locale locale = Locale.getDefault();
+        mDayOfWeekFormat = new SimpleDateFormat("EEE", locale);
+        mDayOfWeekFormat.setCalendar(mCalendar);
+        mDateFormat = DateFormat.getDateFormat(mContext);
+        mDateFormat.setCalendar(mCalendar);
+        mDayTextKey = -1;
+
+        char zeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        if (zeroDigit != mZeroDigit) {
+            mZeroDigit = zeroDigit;
+            mMeasuredTextSize = -1;
+        }
+    }
+
+    /**
+     * Draws the time on one line and the date on the next, both starting at x.
+     *
+     * @param withSeconds whether to show the seconds, and blink the colons with showColons
+     */
+    public void draw(Canvas canvas, float x, float timeY, float dayY, boolean withSeconds,
+            boolean showColons) {
+        measureDigits();
+
+        int length = formatTime(withSeconds);
+        if (showColons || !withSeconds) {
+            canvas.drawText(mTime, 0, length, x, timeY, mTimePaint);
+        } else {
+            // the digits stay where they are while the colons blink
+            float timeX = x;
+            int start = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i == length || mTime[i] == COLON) {
+                    canvas.drawText(mTime, start, i - start, timeX, timeY, mTimePaint);
+                    timeX += getWidth(start, i - start) + mColonWidth;
+                    start = i + 1;
+                }
+            }
+        }
+
+        canvas.drawText(getDayText(), x, dayY, mDayPaint);
+    }
+
+    private int getHour() {
+        int hour = mCalendar.get(Calendar.HOUR);
+        return hour == 0 ? 12 : hour;
+    }
+
+    /**
+     * Writes the calendar's time into the buffer as h:mm or h:mm:ss.
+     *
+     * @return how many chars it took
+     */
+    int formatTime(boolean withSeconds) {
+        int length = 0;
+        int hour = getHour();
+        if (hour >= 10) {
+            mTime[length++] = toDigit(hour / 10);
+        }
+        mTime[length++] = toDigit(hour % 10);
+        mTime[length++] = COLON;
+        length = putTwoDigits(length, mCalendar.get(Calendar.MINUTE));
+        if (withSeconds) {
+            mTime[length++] = COLON;
+            length = putTwoDigits(length, mCalendar.get(Calendar.SECOND));
+        }
+        return length;
+    }
+
+    char[] getTimeBuffer() {
+        return mTime;
+    }
+
+    private int putTwoDigits(int offset, int value) {
+        mTime[offset] = toDigit(value / 10);
+        mTime[offset + 1] = toDigit(value % 10);
+        return offset + 2;
+    }
+
+    private char toDigit(int value) {
+        return (char) (mZeroDigit + value);
+    }
+
+    /**
+     * The width of part of the time buffer, from the measured digit widths rather than by
+     * measuring the text.
+     */
+    float getWidth(int start, int count) {
+        measureDigits();
+        float width = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = mTime[i];
+            width += c == COLON ? mColonWidth : mDigitWidths[c - mZeroDigit];
+        }
+        return width;
+    }
+
+    private void measureDigits() {
+        if (mTimePaint.getTextSize() == mMeasuredTextSize
+                && mTimePaint.getTypeface() == mMeasuredTypeface) {
+            return;
+        }
+        mMeasuredTextSize = mTimePaint.getTextSize();
+        mMeasuredTypeface = mTimePaint.getTypeface();
+        for (int i = 0; i < mDigitWidths.length; i++) {
+            mGlyph[0] = toDigit(i);
+            mDigitWidths[i] = mTimePaint.measureText(mGlyph, 0, 1);
+        }
+        mGlyph[0] = COLON;
+        mColonWidth = mTimePaint.measureText(mGlyph, 0, 1);
+    }
+
+    /**
+     * @return the date line, such as "MON, 6/1/15", formatted again only on a new day
+     */
+    String getDayText() {
+        int key = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (key != mDayTextKey) {
+            mDayTextKey = key;
+            mDate.setTime(mCalendar.getTimeInMillis());
+            mDayText = mDayOfWeekFormat.format(mDate).toUpperCase() + ", "
+                    + mDateFormat.format(mDate);
+        }
+        return mDayText;
+    }
+}
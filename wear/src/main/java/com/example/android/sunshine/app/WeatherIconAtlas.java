@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Every icon {@link Utility#getIconResourceForWeatherCondition} can return, decoded and scaled
+ * once into a single bitmap, with a second one for ambient mode.  Drawing an icon is then a
+ * drawBitmap out of a precomputed rect: no decoding, no scaling and no allocation.
+ *
+ * The ambient icons are grey, or on a low-bit display, plain white silhouettes with no
+ * anti-aliasing.
+ */
+public class WeatherIconAtlas {
+
+    // in atlas order
+    private static final int[] ICONS = {
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_storm,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog
+    };
+    // How opaque a pixel must be to make it into a low-bit silhouette
+    private static final int LOW_BIT_ALPHA = 0x80;
+
+    private final int mIconSize;
+    private final boolean mLowBit;
+    private final Bitmap mInteractive;
+    private final Bitmap mAmbient;
+    private final Rect mSource = new Rect();
+    private final Rect mDestination = new Rect();
+    private final Paint mPaint = new Paint();
+
+    /**
+     * @param iconSize the width and height of every icon, in pixels
+     */
+    public WeatherIconAtlas(Resources resources, int iconSize, boolean lowBitAmbient) {
+        mIconSize = iconSize;
+        mLowBit = lowBitAmbient;
+        mInteractive = Bitmap.createBitmap(iconSize * ICONS.length, iconSize,
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mInteractive);
+        Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // scaled once, from the original pixels, rather than by density and then again
+        options.inScaled = false;
+        Rect destination = new Rect();
+        for (int i = 0; i < ICONS.length; i++) {
+            Bitmap icon = BitmapFactory.decodeResource(resources, ICONS[i], options);
+            destination.set(i * iconSize, 0, (i + 1) * iconSize, iconSize);
+            canvas.drawBitmap(icon, null, destination, scalePaint);
+            icon.recycle();
+        }
+
+        mAmbient = lowBitAmbient ? createLowBit(mInteractive) : createGrey(mInteractive);
+    }
+
+    private static Bitmap createGrey(Bitmap source) {
+        Bitmap grey = Bitmap.createBitmap(source.getWidth(), source.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        Paint paint = new Paint();
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        new Canvas(grey).drawBitmap(source, 0, 0, paint);
+        return grey;
+    }
+
+    private static Bitmap createLowBit(Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = new int[width * height];
+        source.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (pixels[i] >>> 24) >= LOW_BIT_ALPHA ? 0xffffffff : 0;
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @return the icon's place in the atlas, or -1 if it isn't one of the weather icons.  Not
+     * for every frame: look it up when the weather changes and keep it.
+     */
+    public static int indexOf(int iconResourceId) {
+        for (int i = 0; i < ICONS.length; i++) {
+            if (ICONS[i] == iconResourceId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getIconSize() {
+        return mIconSize;
+    }
+
+    public boolean isLowBit() {
+        return mLowBit;
+    }
+
+    // for tests
+    Bitmap getAmbientBitmap() {
+        return mAmbient;
+    }
+
+    /**
+     * Draws the icon with its top left corner at the given point.
+     *
+     * @param index as {@link #indexOf} gave it
+     */
+    public void draw(Canvas canvas, int index, float left, float top, boolean ambient) {
+        int x = Math.round(left);
+        int y = Math.round(top);
+        mSource.set(index * mIconSize, 0, (index + 1) * mIconSize, mIconSize);
+        mDestination.set(x, y, x + mIconSize, y + mIconSize);
+        canvas.drawBitmap(ambient ? mAmbient : mInteractive, mSource, mDestination, mPaint);
+    }
+
+    /**
+     * Frees the bitmaps.  The atlas can't be drawn from afterwards.
+     */
+    public void recycle() {
+        mInteractive.recycle();
+        mAmbient.recycle();
+    }
+}